@@ -0,0 +1,142 @@
+package EPAM2015_lab9;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+// Serialized form shared by the off-heap and memory-mapped maps: a type tag followed by the payload bytes
+final class BinaryCodec {
+
+    static final byte NULL = 0;
+    static final byte BYTES = 1;
+    static final byte STRING = 2;
+    static final byte INTEGER = 3;
+    static final byte LONG = 4;
+
+    private BinaryCodec() {
+    }
+
+    // Content hash consistent with the Objects.deepEquals the entries compare byte[] keys and values with
+    static int hashCode(Object o) {
+        return o instanceof byte[] ? Arrays.hashCode((byte[]) o) : Objects.hashCode(o);
+    }
+
+    static boolean isSupported(Object o) {
+        return o == null || o instanceof byte[] || o instanceof String
+                || o instanceof Integer || o instanceof Long;
+    }
+
+    static byte[] encode(Object o) {
+        if (o == null) {
+            return new byte[]{NULL};
+        }
+        byte[] payload;
+        byte tag;
+        if (o instanceof byte[]) {
+            payload = (byte[]) o;
+            tag = BYTES;
+        } else if (o instanceof String) {
+            payload = ((String) o).getBytes(StandardCharsets.UTF_8);
+            tag = STRING;
+        } else if (o instanceof Integer) {
+            return ByteBuffer.allocate(1 + Integer.BYTES).put(INTEGER).putInt((Integer) o).array();
+        } else if (o instanceof Long) {
+            return ByteBuffer.allocate(1 + Long.BYTES).put(LONG).putLong((Long) o).array();
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + o.getClass().getName());
+        }
+        byte[] toReturn = new byte[payload.length + 1];
+        toReturn[0] = tag;
+        System.arraycopy(payload, 0, toReturn, 1, payload.length);
+        return toReturn;
+    }
+
+    static Object decode(ByteBuffer buf, int offset, int length) {
+        byte tag = buf.get(offset);
+        if (tag == NULL) {
+            return null;
+        }
+        if (tag == INTEGER) {
+            return buf.getInt(offset + 1);
+        }
+        if (tag == LONG) {
+            return buf.getLong(offset + 1);
+        }
+        byte[] payload = new byte[length - 1];
+        ByteBuffer src = buf.duplicate();
+        src.position(offset + 1);
+        src.get(payload);
+        switch (tag) {
+            case BYTES:
+                return payload;
+            case STRING:
+                return new String(payload, StandardCharsets.UTF_8);
+            default:
+                throw new IllegalStateException("Corrupted record, unknown tag: " + tag);
+        }
+    }
+
+    // Compares stored bytes with an encoded probe eight bytes at a time
+    static boolean equals(ByteBuffer buf, int offset, int length, byte[] bytes) {
+        if (length != bytes.length) {
+            return false;
+        }
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            if (buf.getLong(offset + i) != getLong(bytes, i)) {
+                return false;
+            }
+        }
+        for (; i < length; i++) {
+            if (buf.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Murmur3 32-bit over the encoded bytes
+    @SuppressWarnings("fallthrough")
+    static int hash(byte[] bytes) {
+        int h = 0x9747B28C;
+        int i = 0;
+        for (; i + Integer.BYTES <= bytes.length; i += Integer.BYTES) {
+            int k = (bytes[i] & 0xFF) | (bytes[i + 1] & 0xFF) << 8
+                    | (bytes[i + 2] & 0xFF) << 16 | bytes[i + 3] << 24;
+            h ^= mixK(k);
+            h = Integer.rotateLeft(h, 13) * 5 + 0xE6546B64;
+        }
+        int k = 0;
+        switch (bytes.length - i) {
+            case 3:
+                k ^= (bytes[i + 2] & 0xFF) << 16;
+                // fall through
+            case 2:
+                k ^= (bytes[i + 1] & 0xFF) << 8;
+                // fall through
+            case 1:
+                k ^= bytes[i] & 0xFF;
+                h ^= mixK(k);
+        }
+        h ^= bytes.length;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ h >>> 16;
+    }
+
+    private static int mixK(int k) {
+        return Integer.rotateLeft(k * 0xCC9E2D51, 15) * 0x1B873593;
+    }
+
+    // Big-endian to match ByteBuffer's default byte order
+    private static long getLong(byte[] bytes, int i) {
+        long toReturn = 0;
+        for (int j = 0; j < Long.BYTES; j++) {
+            toReturn = toReturn << 8 | bytes[i + j] & 0xFF;
+        }
+        return toReturn;
+    }
+}
@@ -0,0 +1,161 @@
+package EPAM2015_lab9;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+// Fork/join bulk operations over a map's spliterator. A task keeps splitting off halves while more
+// than parallelismThreshold entries remain, so Long.MAX_VALUE runs sequentially and 1 splits fully
+final class BulkTasks {
+
+    private BulkTasks() {
+    }
+
+    static void forEach(MyMap map, long parallelismThreshold, BiConsumer<Object, Object> action) {
+        Objects.requireNonNull(action);
+        ForkJoinPool.commonPool().invoke(new ForEachTask(map.spliterator(), parallelismThreshold, action));
+    }
+
+    // Returns the first non-null result found by any task, or null
+    static Object search(MyMap map, long parallelismThreshold, BiFunction<Object, Object, Object> searchFunction) {
+        Objects.requireNonNull(searchFunction);
+        AtomicReference<Object> result = new AtomicReference<>();
+        ForkJoinPool.commonPool().invoke(new SearchTask(map.spliterator(), parallelismThreshold, searchFunction, result));
+        return result.get();
+    }
+
+    // Result arrays of the batch calls in MyMap must cover the keys, a null one is not written
+    static void checkBatch(Object[] keys, Object[] values, Object[] previous) {
+        if (values != null && values.length < keys.length) {
+            throw new IllegalArgumentException("Fewer values than keys: " + values.length);
+        }
+        if (previous != null && previous.length < keys.length) {
+            throw new IllegalArgumentException("Fewer result slots than keys: " + previous.length);
+        }
+    }
+
+    // Combines the non-null values, returns null for an empty map
+    static Object reduceValues(MyMap map, long parallelismThreshold, BiFunction<Object, Object, Object> reducer) {
+        Objects.requireNonNull(reducer);
+        return ForkJoinPool.commonPool().invoke(new ReduceTask(map.spliterator(), parallelismThreshold, reducer));
+    }
+
+    private static final class ForEachTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Spliterator<MyMap.Entry> spliterator;
+        private final long threshold;
+        private final BiConsumer<Object, Object> action;
+
+        private ForEachTask(Spliterator<MyMap.Entry> spliterator, long threshold, BiConsumer<Object, Object> action) {
+            this.spliterator = spliterator;
+            this.threshold = threshold;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForEachTask> forked = new ArrayList<>();
+            Spliterator<MyMap.Entry> split;
+            while (spliterator.estimateSize() > threshold && (split = spliterator.trySplit()) != null) {
+                ForEachTask task = new ForEachTask(split, threshold, action);
+                task.fork();
+                forked.add(task);
+            }
+            spliterator.forEachRemaining(entry -> action.accept(entry.getKey(), entry.getValue()));
+            for (ForEachTask task : forked) {
+                task.join();
+            }
+        }
+    }
+
+    private static final class SearchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Spliterator<MyMap.Entry> spliterator;
+        private final long threshold;
+        private final BiFunction<Object, Object, Object> searchFunction;
+        private final AtomicReference<Object> result;
+
+        private SearchTask(Spliterator<MyMap.Entry> spliterator, long threshold,
+                           BiFunction<Object, Object, Object> searchFunction, AtomicReference<Object> result) {
+            this.spliterator = spliterator;
+            this.threshold = threshold;
+            this.searchFunction = searchFunction;
+            this.result = result;
+        }
+
+        // Every task polls the shared result between entries and stops once any task has found one
+        @Override
+        protected void compute() {
+            List<SearchTask> forked = new ArrayList<>();
+            Spliterator<MyMap.Entry> split;
+            while (result.get() == null && spliterator.estimateSize() > threshold
+                    && (split = spliterator.trySplit()) != null) {
+                SearchTask task = new SearchTask(split, threshold, searchFunction, result);
+                task.fork();
+                forked.add(task);
+            }
+            while (result.get() == null && spliterator.tryAdvance(entry -> {
+                Object found = searchFunction.apply(entry.getKey(), entry.getValue());
+                if (found != null) {
+                    result.compareAndSet(null, found);
+                }
+            })) {
+                // Advanced by one entry
+            }
+            for (SearchTask task : forked) {
+                task.join();
+            }
+        }
+    }
+
+    private static final class ReduceTask extends RecursiveTask<Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Spliterator<MyMap.Entry> spliterator;
+        private final long threshold;
+        private final BiFunction<Object, Object, Object> reducer;
+        private Object reduced;
+
+        private ReduceTask(Spliterator<MyMap.Entry> spliterator, long threshold,
+                           BiFunction<Object, Object, Object> reducer) {
+            this.spliterator = spliterator;
+            this.threshold = threshold;
+            this.reducer = reducer;
+        }
+
+        @Override
+        protected Object compute() {
+            List<ReduceTask> forked = new ArrayList<>();
+            Spliterator<MyMap.Entry> split;
+            while (spliterator.estimateSize() > threshold && (split = spliterator.trySplit()) != null) {
+                ReduceTask task = new ReduceTask(split, threshold, reducer);
+                task.fork();
+                forked.add(task);
+            }
+            spliterator.forEachRemaining(entry -> reduced = combine(reduced, entry.getValue()));
+            for (ReduceTask task : forked) {
+                reduced = combine(reduced, task.join());
+            }
+            return reduced;
+        }
+
+        private Object combine(Object accumulated, Object value) {
+            if (value == null) {
+                return accumulated;
+            }
+            return accumulated == null ? value : reducer.apply(accumulated, value);
+        }
+    }
+}
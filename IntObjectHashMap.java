@@ -0,0 +1,321 @@
+package EPAM2015_lab9;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+public class IntObjectHashMap implements MyMap {
+
+    private class SimpleEntry implements MyMap.Entry {
+
+        private final int key;
+        private Object value;
+
+        public SimpleEntry(int key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            this.value = value;
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.equals(getKey(), ((MyMap.Entry) o).getKey()) &&
+                    Objects.equals(value, ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key ^ Objects.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private int count;
+        private int curSlot = -1;
+        private boolean zeroReturned = !hasZeroKey;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return count < size;
+        }
+
+        @Override
+        public Entry next() {
+            if (count >= size) {
+                throw new NoSuchElementException();
+            }
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            count++;
+            if (!zeroReturned) {
+                zeroReturned = true;
+                return new SimpleEntry(0, zeroValue);
+            }
+            for (int i = curSlot + 1; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    curSlot = i;
+                    return new SimpleEntry(keys[i], values[i]);
+                }
+            }
+            throw new NoSuchElementException();
+        }
+    }
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    // Key 0 marks a free slot, so the entry for key 0 is kept aside
+    private int[] keys;
+    private Object[] values;
+    private boolean hasZeroKey;
+    private Object zeroValue;
+    private float loadFactor;
+    private int size;
+    private int modCount;
+
+    public IntObjectHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntObjectHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntObjectHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: "
+                    + initialCapacity);
+        }
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        int capacity = tableSizeFor((int) Math.min(MAXIMUM_CAPACITY, Math.ceil(initialCapacity / loadFactor)));
+        this.keys = new int[Math.max(2, capacity)];
+        this.values = new Object[keys.length];
+        this.loadFactor = loadFactor;
+    }
+
+    @Override
+    public void clear() {
+        keys = new int[keys.length];
+        values = new Object[values.length];
+        hasZeroKey = false;
+        zeroValue = null;
+        size = 0;
+        modCount++;
+    }
+
+    public boolean containsKey(int key) {
+        return key == 0 ? hasZeroKey : keys[indexOf(key)] != 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Integer && containsKey(((Integer) key).intValue());
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (hasZeroKey && Objects.equals(zeroValue, value)) {
+            return true;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && Objects.equals(values[i], value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    public Object get(int key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        return values[indexOf(key)];
+    }
+
+    @Override
+    public Object get(Object key) {
+        return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Object put(int key, Object value) {
+        if (key == 0) {
+            Object toReturn = zeroValue;
+            zeroValue = value;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+                modCount++;
+            }
+            return toReturn;
+        }
+        int slot = indexOf(key);
+        if (keys[slot] != 0) {
+            Object toReturn = values[slot];
+            values[slot] = value;
+            return toReturn;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * loadFactor && keys.length < MAXIMUM_CAPACITY) {
+            resize(keys.length << 1);
+        }
+        modCount++;
+        return null;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        return put(((Integer) key).intValue(), value);
+    }
+
+    public Object remove(int key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return null;
+            }
+            Object toReturn = zeroValue;
+            hasZeroKey = false;
+            zeroValue = null;
+            size--;
+            modCount++;
+            return toReturn;
+        }
+        int slot = indexOf(key);
+        if (keys[slot] == 0) {
+            return null;
+        }
+        Object toReturn = values[slot];
+        shiftKeys(slot);
+        size--;
+        modCount++;
+        return toReturn;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return key instanceof Integer ? remove(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+
+    // Returns the slot holding the key or the free slot that ends its probe sequence
+    private int indexOf(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        int curKey;
+        while ((curKey = keys[slot]) != 0 && curKey != key) {
+            slot = slot + 1 & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int newCap) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        int mask = newCap - 1;
+        keys = new int[newCap];
+        values = new Object[newCap];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (keys[slot] != 0) {
+                    slot = slot + 1 & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    // Backward shift deletion keeps linear probe sequences intact without tombstones
+    private void shiftKeys(int slot) {
+        int mask = keys.length - 1;
+        for (;;) {
+            int last = slot;
+            int curKey;
+            for (;;) {
+                slot = slot + 1 & mask;
+                if ((curKey = keys[slot]) == 0) {
+                    keys[last] = 0;
+                    values[last] = null;
+                    return;
+                }
+                int home = mix(curKey) & mask;
+                if (last <= slot ? last >= home || home > slot : last >= home && home > slot) {
+                    break;
+                }
+            }
+            keys[last] = curKey;
+            values[last] = values[slot];
+        }
+    }
+
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ hash >>> 16;
+    }
+
+    private static int tableSizeFor(int cap) {
+        if (--cap > 0) {
+            for (int mask = 1 << 30; mask > 0; mask >>>= 1) {
+                if ((mask & cap) > 0) {
+                    return mask >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : mask << 1;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,348 @@
+package EPAM2015_lab9;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+public class LongLongHashMap implements MyMap {
+
+    private class SimpleEntry implements MyMap.Entry {
+
+        private final long key;
+        private long value;
+
+        public SimpleEntry(long key, long value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            this.value = (Long) value;
+            return put((Object) key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.equals(getKey(), ((MyMap.Entry) o).getKey()) &&
+                    Objects.equals(getValue(), ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(key) ^ Long.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private int count;
+        private int curSlot = -1;
+        private boolean zeroReturned = !hasZeroKey;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return count < size;
+        }
+
+        @Override
+        public Entry next() {
+            if (count >= size) {
+                throw new NoSuchElementException();
+            }
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            count++;
+            if (!zeroReturned) {
+                zeroReturned = true;
+                return new SimpleEntry(0, zeroValue);
+            }
+            for (int i = curSlot + 1; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    curSlot = i;
+                    return new SimpleEntry(keys[i], values[i]);
+                }
+            }
+            throw new NoSuchElementException();
+        }
+    }
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    // Key 0 marks a free slot, so the entry for key 0 is kept aside
+    private long[] keys;
+    private long[] values;
+    private boolean hasZeroKey;
+    private long zeroValue;
+    private final long noEntryValue;
+    private float loadFactor;
+    private int size;
+    private int modCount;
+
+    public LongLongHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, 0);
+    }
+
+    public LongLongHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, 0);
+    }
+
+    public LongLongHashMap(int initialCapacity, float loadFactor, long noEntryValue) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: "
+                    + initialCapacity);
+        }
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        int capacity = tableSizeFor((int) Math.min(MAXIMUM_CAPACITY, Math.ceil(initialCapacity / loadFactor)));
+        this.keys = new long[Math.max(2, capacity)];
+        this.values = new long[keys.length];
+        this.loadFactor = loadFactor;
+        this.noEntryValue = noEntryValue;
+    }
+
+    @Override
+    public void clear() {
+        keys = new long[keys.length];
+        values = new long[values.length];
+        hasZeroKey = false;
+        zeroValue = 0;
+        size = 0;
+        modCount++;
+    }
+
+    public boolean containsKey(long key) {
+        return key == 0 ? hasZeroKey : keys[indexOf(key)] != 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Long && containsKey(((Long) key).longValue());
+    }
+
+    public boolean containsValue(long value) {
+        if (hasZeroKey && zeroValue == value) {
+            return true;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return value instanceof Long && containsValue(((Long) value).longValue());
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    public long get(long key) {
+        return getOrDefault(key, noEntryValue);
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (!(key instanceof Long)) {
+            return null;
+        }
+        long primitiveKey = (Long) key;
+        return containsKey(primitiveKey) ? (Object) get(primitiveKey) : null;
+    }
+
+    public long getNoEntryValue() {
+        return noEntryValue;
+    }
+
+    public long getOrDefault(long key, long defaultValue) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int slot = indexOf(key);
+        return keys[slot] != 0 ? values[slot] : defaultValue;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long put(long key, long value) {
+        if (key == 0) {
+            long toReturn = hasZeroKey ? zeroValue : noEntryValue;
+            zeroValue = value;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+                modCount++;
+            }
+            return toReturn;
+        }
+        int slot = indexOf(key);
+        if (keys[slot] != 0) {
+            long toReturn = values[slot];
+            values[slot] = value;
+            return toReturn;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * loadFactor && keys.length < MAXIMUM_CAPACITY) {
+            resize(keys.length << 1);
+        }
+        modCount++;
+        return noEntryValue;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        long primitiveKey = (Long) key;
+        Object toReturn = get(key);
+        put(primitiveKey, ((Long) value).longValue());
+        return toReturn;
+    }
+
+    public long remove(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return noEntryValue;
+            }
+            long toReturn = zeroValue;
+            hasZeroKey = false;
+            zeroValue = 0;
+            size--;
+            modCount++;
+            return toReturn;
+        }
+        int slot = indexOf(key);
+        if (keys[slot] == 0) {
+            return noEntryValue;
+        }
+        long toReturn = values[slot];
+        shiftKeys(slot);
+        size--;
+        modCount++;
+        return toReturn;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (!(key instanceof Long)) {
+            return null;
+        }
+        Object toReturn = get(key);
+        remove(((Long) key).longValue());
+        return toReturn;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+
+    // Returns the slot holding the key or the free slot that ends its probe sequence
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        long curKey;
+        while ((curKey = keys[slot]) != 0 && curKey != key) {
+            slot = slot + 1 & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int newCap) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        int mask = newCap - 1;
+        keys = new long[newCap];
+        values = new long[newCap];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (keys[slot] != 0) {
+                    slot = slot + 1 & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    // Backward shift deletion keeps linear probe sequences intact without tombstones
+    private void shiftKeys(int slot) {
+        int mask = keys.length - 1;
+        for (;;) {
+            int last = slot;
+            long curKey;
+            for (;;) {
+                slot = slot + 1 & mask;
+                if ((curKey = keys[slot]) == 0) {
+                    keys[last] = 0;
+                    values[last] = 0;
+                    return;
+                }
+                int home = mix(curKey) & mask;
+                if (last <= slot ? last >= home || home > slot : last >= home && home > slot) {
+                    break;
+                }
+            }
+            keys[last] = curKey;
+            values[last] = values[slot];
+        }
+    }
+
+    private static int mix(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    private static int tableSizeFor(int cap) {
+        if (--cap > 0) {
+            for (int mask = 1 << 30; mask > 0; mask >>>= 1) {
+                if ((mask & cap) > 0) {
+                    return mask >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : mask << 1;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,33 @@
+package EPAM2015_lab9;
+
+// Publishes map statistics as flight recorder events. jdk.jfr needs Java 11 while the maps target
+// Java 8, so the implementation in jfr/JfrMapFlightRecorder.java is compiled separately and looked
+// up by name: javac -d out *.java && javac -cp out -d out jfr/*.java. Without it on the class path
+// INSTANCE is null and the statistics are only reported over JMX
+interface MapFlightRecorder {
+
+    MapFlightRecorder INSTANCE = load();
+
+    // Emits statistics events every period; the hook holds the map weakly and drops itself once
+    // the map is collected. Returns the hook to pass to removePeriodic
+    Object addHashMapStatistics(MyHashMap map);
+
+    Object addTreeMapStatistics(MyTreeMap map);
+
+    void removePeriodic(Object hook);
+
+    // Returns the begun event to pass to endHashMapResize
+    Object beginHashMapResize();
+
+    void endHashMapResize(Object event, int oldCapacity, int newCapacity, int size, boolean incremental);
+
+    static MapFlightRecorder load() {
+        try {
+            return (MapFlightRecorder) Class.forName("EPAM2015_lab9.JfrMapFlightRecorder")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not compiled in, or running on a JVM without jdk.jfr
+            return null;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package EPAM2015_lab9;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+// Read-only view of a snapshot written by MyHashMap.writeSnapshot, looked up in the mapped file.
+// Keys and values are decoded only when returned; byte[] keys are matched by content
+public class MappedHashMap implements MyMap {
+
+    private static class SimpleEntry implements MyMap.Entry {
+
+        private final Object key;
+        private final Object value;
+
+        public SimpleEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.deepEquals(key, ((MyMap.Entry) o).getKey()) &&
+                    Objects.deepEquals(value, ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return BinaryCodec.hashCode(key) ^ BinaryCodec.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private int index;
+
+        @Override
+        public boolean hasNext() {
+            return index < snapshot.size();
+        }
+
+        @Override
+        public Entry next() {
+            if (index >= snapshot.size()) {
+                throw new NoSuchElementException();
+            }
+            long record = snapshot.record(index++);
+            return new SimpleEntry(snapshot.key(record), snapshot.value(record));
+        }
+    }
+
+    private final MappedSnapshot snapshot;
+
+    private MappedHashMap(MappedSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public static MappedHashMap open(Path path) throws IOException {
+        return new MappedHashMap(MappedSnapshot.open(path, MappedSnapshot.HASHED));
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return BinaryCodec.isSupported(key) && findRecord(BinaryCodec.encode(key)) >= 0;
+    }
+
+    // Compares serialized values, nothing is deserialized
+    @Override
+    public boolean containsValue(Object value) {
+        if (!BinaryCodec.isSupported(value)) {
+            return false;
+        }
+        byte[] bytes = BinaryCodec.encode(value);
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.valueEquals(snapshot.record(i), bytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (!BinaryCodec.isSupported(key)) {
+            return null;
+        }
+        long record = findRecord(BinaryCodec.encode(key));
+        return record < 0 ? null : snapshot.value(record);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return snapshot.size() == 0;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public Object remove(Object key) {
+        throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+
+    // Scans the key's bucket, checking the stored hash before the key bytes
+    private long findRecord(byte[] keyBytes) {
+        int hash = BinaryCodec.hash(keyBytes);
+        int bucket = hash & snapshot.bucketCount() - 1;
+        int end = snapshot.bucketStart(bucket + 1);
+        for (int i = snapshot.bucketStart(bucket); i < end; i++) {
+            long record = snapshot.record(i);
+            if (snapshot.hash(record) == hash && snapshot.keyEquals(record, keyBytes)) {
+                return record;
+            }
+        }
+        return -1;
+    }
+}
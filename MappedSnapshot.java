@@ -0,0 +1,281 @@
+package EPAM2015_lab9;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+// Snapshot file read through memory-mapped regions. Layout:
+//   header:  magic, kind, size, bucket count, offsets position, buckets position
+//   records: hash, key length, value length, key bytes, value bytes (BinaryCodec encoded)
+//   offsets: long position of every record, in bucket order (hashed) or key order (sorted)
+//   buckets: int index of the first record of every bucket plus the end index (hashed only)
+final class MappedSnapshot {
+
+    static final int HASHED = 1;
+    static final int SORTED = 2;
+
+    private static final int MAGIC = 0x4D534E50;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 3 * Integer.BYTES;
+    // A record never straddles two regions, the writer pads up to the next region instead
+    private static final int REGION_SHIFT = 30;
+    private static final long REGION_SIZE = 1L << REGION_SHIFT;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ByteBuffer[] regions;
+    private final int size;
+    private final int bucketCount;
+    private final long offsetsPosition;
+    private final long bucketsPosition;
+
+    private MappedSnapshot(ByteBuffer[] regions) throws IOException {
+        this.regions = regions;
+        if (regions.length == 0 || regions[0].limit() < HEADER_SIZE || regions[0].getInt(0) != MAGIC) {
+            throw new IOException("Not a map snapshot");
+        }
+        this.size = regions[0].getInt(2 * Integer.BYTES);
+        this.bucketCount = regions[0].getInt(3 * Integer.BYTES);
+        this.offsetsPosition = regions[0].getLong(4 * Integer.BYTES);
+        this.bucketsPosition = regions[0].getLong(4 * Integer.BYTES + Long.BYTES);
+    }
+
+    static MappedSnapshot open(Path path, int kind) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer[] regions = new ByteBuffer[(int) ((fileSize + REGION_SIZE - 1) >>> REGION_SHIFT)];
+            for (int i = 0; i < regions.length; i++) {
+                long position = (long) i << REGION_SHIFT;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(REGION_SIZE, fileSize - position));
+            }
+            MappedSnapshot toReturn = new MappedSnapshot(regions);
+            if (regions[0].getInt(Integer.BYTES) != kind) {
+                throw new IOException("Unexpected snapshot kind: " + regions[0].getInt(Integer.BYTES));
+            }
+            return toReturn;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int bucketCount() {
+        return bucketCount;
+    }
+
+    int bucketStart(int bucket) {
+        return getInt(bucketsPosition + (long) bucket * Integer.BYTES);
+    }
+
+    long record(int index) {
+        return getLong(offsetsPosition + (long) index * Long.BYTES);
+    }
+
+    int hash(long record) {
+        return getInt(record);
+    }
+
+    Object key(long record) {
+        return BinaryCodec.decode(region(record), offset(record) + RECORD_HEADER_SIZE,
+                getInt(record + Integer.BYTES));
+    }
+
+    Object value(long record) {
+        return BinaryCodec.decode(region(record), valueOffset(record), getInt(record + 2 * Integer.BYTES));
+    }
+
+    boolean keyEquals(long record, byte[] bytes) {
+        return BinaryCodec.equals(region(record), offset(record) + RECORD_HEADER_SIZE,
+                getInt(record + Integer.BYTES), bytes);
+    }
+
+    boolean valueEquals(long record, byte[] bytes) {
+        return BinaryCodec.equals(region(record), valueOffset(record),
+                getInt(record + 2 * Integer.BYTES), bytes);
+    }
+
+    private int valueOffset(long record) {
+        return offset(record) + RECORD_HEADER_SIZE + getInt(record + Integer.BYTES);
+    }
+
+    private int getInt(long position) {
+        return region(position).getInt(offset(position));
+    }
+
+    private long getLong(long position) {
+        return region(position).getLong(offset(position));
+    }
+
+    private ByteBuffer region(long position) {
+        return regions[(int) (position >>> REGION_SHIFT)];
+    }
+
+    private static int offset(long position) {
+        return (int) (position & REGION_SIZE - 1);
+    }
+
+    // Groups the entries by bucket of their encoded key hash, buckets are laid out one after another
+    static void writeHashed(Path path, MyMap map) throws IOException {
+        int size = map.size();
+        Object[] keys = new Object[size];
+        Object[] values = new Object[size];
+        int[] hashes = new int[size];
+        int bucketCount = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+        int[] bucketStarts = new int[bucketCount + 1];
+        Iterator iter = map.entryIterator();
+        for (int i = 0; i < size; i++) {
+            MyMap.Entry curEntry = (MyMap.Entry) iter.next();
+            keys[i] = curEntry.getKey();
+            values[i] = curEntry.getValue();
+            hashes[i] = BinaryCodec.hash(BinaryCodec.encode(keys[i]));
+            bucketStarts[(hashes[i] & bucketCount - 1) + 1]++;
+        }
+        for (int i = 0; i < bucketCount; i++) {
+            bucketStarts[i + 1] += bucketStarts[i];
+        }
+        int[] order = new int[size];
+        int[] next = bucketStarts.clone();
+        for (int i = 0; i < size; i++) {
+            order[next[hashes[i] & bucketCount - 1]++] = i;
+        }
+        try (Writer writer = new Writer(path)) {
+            long[] offsets = new long[size];
+            for (int i = 0; i < size; i++) {
+                int entry = order[i];
+                offsets[i] = writer.writeRecord(hashes[entry],
+                        BinaryCodec.encode(keys[entry]), BinaryCodec.encode(values[entry]));
+            }
+            long offsetsPosition = writer.writeLongs(offsets);
+            long bucketsPosition = writer.writeInts(bucketStarts);
+            writer.writeHeader(HASHED, size, bucketCount, offsetsPosition, bucketsPosition);
+        }
+    }
+
+    // Streams the entries in iteration order, which must be ascending key order
+    static void writeSorted(Path path, MyMap map) throws IOException {
+        int size = map.size();
+        try (Writer writer = new Writer(path)) {
+            long[] offsets = new long[size];
+            Iterator iter = map.entryIterator();
+            for (int i = 0; i < size; i++) {
+                MyMap.Entry curEntry = (MyMap.Entry) iter.next();
+                offsets[i] = writer.writeRecord(0,
+                        BinaryCodec.encode(curEntry.getKey()), BinaryCodec.encode(curEntry.getValue()));
+            }
+            long offsetsPosition = writer.writeLongs(offsets);
+            writer.writeHeader(SORTED, size, 0, offsetsPosition, 0);
+        }
+    }
+
+    private static final class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long position;
+
+        private Writer(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            this.position = HEADER_SIZE;
+            channel.position(HEADER_SIZE);
+        }
+
+        private long writeRecord(int hash, byte[] key, byte[] value) throws IOException {
+            long recordSize = RECORD_HEADER_SIZE + (long) key.length + value.length;
+            if (recordSize > REGION_SIZE) {
+                throw new IllegalArgumentException("Entry too large for a snapshot: " + recordSize + " bytes");
+            }
+            long regionLeft = REGION_SIZE - (position & REGION_SIZE - 1);
+            if (recordSize > regionLeft) {
+                pad(regionLeft);
+            }
+            long toReturn = position;
+            putInt(hash);
+            putInt(key.length);
+            putInt(value.length);
+            put(key);
+            put(value);
+            return toReturn;
+        }
+
+        private long writeLongs(long[] array) throws IOException {
+            pad(-position & Long.BYTES - 1);
+            long toReturn = position;
+            for (long l : array) {
+                ensure(Long.BYTES);
+                buffer.putLong(l);
+                position += Long.BYTES;
+            }
+            return toReturn;
+        }
+
+        private long writeInts(int[] array) throws IOException {
+            pad(-position & Integer.BYTES - 1);
+            long toReturn = position;
+            for (int i : array) {
+                putInt(i);
+            }
+            return toReturn;
+        }
+
+        private void writeHeader(int kind, int size, int bucketCount, long offsetsPosition,
+                                 long bucketsPosition) throws IOException {
+            flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(kind).putInt(size).putInt(bucketCount)
+                    .putLong(offsetsPosition).putLong(bucketsPosition).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+
+        private void pad(long count) throws IOException {
+            for (long i = 0; i < count; i++) {
+                ensure(1);
+                buffer.put((byte) 0);
+            }
+            position += count;
+        }
+
+        private void putInt(int i) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(i);
+            position += Integer.BYTES;
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            for (int done = 0; done < bytes.length; ) {
+                ensure(1);
+                int count = Math.min(buffer.remaining(), bytes.length - done);
+                buffer.put(bytes, done, count);
+                done += count;
+            }
+            position += bytes.length;
+        }
+
+        private void ensure(int count) throws IOException {
+            if (buffer.remaining() < count) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
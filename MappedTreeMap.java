@@ -0,0 +1,185 @@
+package EPAM2015_lab9;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+// Read-only view of a snapshot written by MyTreeMap.writeSnapshot. Lookups binary search the
+// sorted key run in the mapped file, so they need the comparator the tree was ordered by
+public class MappedTreeMap implements MyMap {
+
+    private static class SimpleEntry implements MyMap.Entry {
+
+        private final Object key;
+        private final Object value;
+
+        public SimpleEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.deepEquals(key, ((MyMap.Entry) o).getKey()) &&
+                    Objects.deepEquals(value, ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return BinaryCodec.hashCode(key) ^ BinaryCodec.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private int index;
+
+        @Override
+        public boolean hasNext() {
+            return index < snapshot.size();
+        }
+
+        @Override
+        public Entry next() {
+            if (index >= snapshot.size()) {
+                throw new NoSuchElementException();
+            }
+            long record = snapshot.record(index++);
+            return new SimpleEntry(snapshot.key(record), snapshot.value(record));
+        }
+    }
+
+    private final MappedSnapshot snapshot;
+    private final Comparator comparator;
+
+    private MappedTreeMap(MappedSnapshot snapshot, Comparator comparator) {
+        this.snapshot = snapshot;
+        this.comparator = comparator;
+    }
+
+    public static MappedTreeMap open(Path path) throws IOException {
+        return open(path, null);
+    }
+
+    public static MappedTreeMap open(Path path, Comparator comparator) throws IOException {
+        return new MappedTreeMap(MappedSnapshot.open(path, MappedSnapshot.SORTED), comparator);
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    // Compares serialized values, nothing is deserialized
+    @Override
+    public boolean containsValue(Object value) {
+        if (!BinaryCodec.isSupported(value)) {
+            return false;
+        }
+        byte[] bytes = BinaryCodec.encode(value);
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.valueEquals(snapshot.record(i), bytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : snapshot.value(snapshot.record(index));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return snapshot.size() == 0;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public Object remove(Object key) {
+        throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+
+    // Decodes only the O(log n) keys the binary search probes
+    private int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = snapshot.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(snapshot.key(snapshot.record(mid)), key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(Object o1, Object o2) {
+        return this.comparator == null
+                ? ((Comparable) o1).compareTo(o2) : this.comparator.compare(o1, o2);
+    }
+}
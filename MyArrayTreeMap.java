@@ -0,0 +1,641 @@
+package EPAM2015_lab9;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+// Red-black tree whose nodes are slots of parallel arrays: links are int indices and colors one bit
+// each, so with compressed references a node takes 20 bytes of arrays instead of a 40 byte object,
+// and the garbage collector traces a few arrays rather than every node. Slot 0 is the black nil leaf,
+// which lets the fix-ups read and even write the links of a missing child. Removed slots are
+// chained through left into a free list and reused before the arrays grow
+public class MyArrayTreeMap implements MyMap {
+
+    // Copy of a node, setValue writes through to the map since slots are reused
+    private class SimpleEntry implements MyMap.Entry {
+
+        private final Object key;
+        private Object value;
+
+        public SimpleEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object toReturn = this.value;
+            put(key, this.value = value);
+            return toReturn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.equals(key, ((MyMap.Entry) o).getKey()) &&
+                    Objects.equals(value, ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private int nextNode = minimum(root);
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return nextNode != NIL;
+        }
+
+        @Override
+        public Entry next() {
+            if (nextNode == NIL) {
+                throw new NoSuchElementException();
+            }
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            int toReturn = nextNode;
+            nextNode = successor(nextNode);
+            return new SimpleEntry(keys[toReturn], values[toReturn]);
+        }
+    }
+
+    private class EntryCursor implements Cursor {
+
+        private int curNode = NIL;
+        private boolean started;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean advance() {
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            curNode = started ? successor(curNode) : minimum(root);
+            started = true;
+            return curNode != NIL;
+        }
+
+        @Override
+        public Object key() {
+            return keys[current()];
+        }
+
+        @Override
+        public void reset() {
+            curNode = NIL;
+            started = false;
+            expectedModCount = modCount;
+        }
+
+        @Override
+        public Object value() {
+            return values[current()];
+        }
+
+        private int current() {
+            if (curNode == NIL) {
+                throw new NoSuchElementException();
+            }
+            return curNode;
+        }
+    }
+
+    private static final int NIL = 0;
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private Object[] keys;
+    private Object[] values;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    // Bit set for a red node; the bit of nil is never set
+    private long[] red;
+    private int root = NIL;
+    // Slots from here on have never been used
+    private int nextSlot = 1;
+    private int freeList = NIL;
+    private final Comparator comparator;
+    private int size;
+    private int modCount;
+
+    public MyArrayTreeMap() {
+        this(DEFAULT_INITIAL_CAPACITY, null);
+    }
+
+    public MyArrayTreeMap(Comparator comparator) {
+        this(DEFAULT_INITIAL_CAPACITY, comparator);
+    }
+
+    // Presizes the arrays for initialCapacity entries
+    public MyArrayTreeMap(int initialCapacity, Comparator comparator) {
+        if (initialCapacity < 0 || initialCapacity >= MAXIMUM_CAPACITY) {
+            throw new IllegalArgumentException("Illegal initial capacity: "
+                    + initialCapacity);
+        }
+        this.comparator = comparator;
+        allocate(initialCapacity + 1);
+    }
+
+    public Object ceilingKey(Object key) {
+        return keyOrNull(ceilingNode(key, true));
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0, nextSlot, null);
+        Arrays.fill(values, 0, nextSlot, null);
+        Arrays.fill(red, 0);
+        root = NIL;
+        nextSlot = 1;
+        freeList = NIL;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findNode(key) != NIL;
+    }
+
+    // Scans the value array in slot order, free slots are the ones without a key
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 1; i < nextSlot; i++) {
+            if (keys[i] != null && Objects.equals(values[i], value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new EntryCursor();
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    public Object firstKey() {
+        return key(minimum(root));
+    }
+
+    public Object floorKey(Object key) {
+        return keyOrNull(floorNode(key, true));
+    }
+
+    @Override
+    public void forEach(BiConsumer<Object, Object> action) {
+        int expectedModCount = modCount;
+        for (int node = minimum(root); node != NIL; node = successor(node)) {
+            action.accept(keys[node], values[node]);
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        int node = findNode(key);
+        return node == NIL ? null : values[node];
+    }
+
+    public Object higherKey(Object key) {
+        return keyOrNull(ceilingNode(key, false));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Object lastKey() {
+        return key(maximum(root));
+    }
+
+    public Object lowerKey(Object key) {
+        return keyOrNull(floorNode(key, false));
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int parentNode = NIL;
+        int curNode = root;
+        int cmp = 0;
+        while (curNode != NIL) {
+            cmp = compare(key, keys[curNode]);
+            if (cmp == 0) {
+                Object toReturn = values[curNode];
+                values[curNode] = value;
+                return toReturn;
+            }
+            parentNode = curNode;
+            curNode = cmp < 0 ? left[curNode] : right[curNode];
+        }
+        int toAdd = newNode(key, value);
+        parent[toAdd] = parentNode;
+        if (parentNode == NIL) {
+            root = toAdd;
+        } else if (cmp < 0) {
+            left[parentNode] = toAdd;
+        } else {
+            right[parentNode] = toAdd;
+        }
+        fixAfterInsert(toAdd);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int node = findNode(key);
+        if (node == NIL) {
+            return null;
+        }
+        Object toReturn = values[node];
+        deleteNode(node);
+        size--;
+        modCount++;
+        return toReturn;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder();
+        try {
+            appendTo(toReturn);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+        return toReturn.toString();
+    }
+
+    private int findNode(Object key) {
+        if (key == null) {
+            return NIL;
+        }
+        int curNode = root;
+        while (curNode != NIL) {
+            int cmp = compare(key, keys[curNode]);
+            if (cmp == 0) {
+                return curNode;
+            }
+            curNode = cmp < 0 ? left[curNode] : right[curNode];
+        }
+        return NIL;
+    }
+
+    // Least node above key, or at it when inclusive
+    private int ceilingNode(Object key, boolean inclusive) {
+        int toReturn = NIL;
+        int curNode = root;
+        while (curNode != NIL) {
+            int cmp = compare(key, keys[curNode]);
+            if (cmp < 0 || cmp == 0 && inclusive) {
+                toReturn = curNode;
+                if (cmp == 0) {
+                    break;
+                }
+                curNode = left[curNode];
+            } else {
+                curNode = right[curNode];
+            }
+        }
+        return toReturn;
+    }
+
+    // Greatest node below key, or at it when inclusive
+    private int floorNode(Object key, boolean inclusive) {
+        int toReturn = NIL;
+        int curNode = root;
+        while (curNode != NIL) {
+            int cmp = compare(key, keys[curNode]);
+            if (cmp > 0 || cmp == 0 && inclusive) {
+                toReturn = curNode;
+                if (cmp == 0) {
+                    break;
+                }
+                curNode = right[curNode];
+            } else {
+                curNode = left[curNode];
+            }
+        }
+        return toReturn;
+    }
+
+    private void fixAfterInsert(int node) {
+        while (isRed(parent[node])) {
+            int parentNode = parent[node];
+            int grandParent = parent[parentNode];
+            if (parentNode == left[grandParent]) {
+                int uncle = right[grandParent];
+                if (isRed(uncle)) {
+                    setRed(parentNode, false);
+                    setRed(uncle, false);
+                    setRed(grandParent, true);
+                    node = grandParent;
+                    continue;
+                }
+                if (node == right[parentNode]) {
+                    node = parentNode;
+                    rotateLeft(node);
+                    parentNode = parent[node];
+                }
+                setRed(parentNode, false);
+                setRed(grandParent, true);
+                rotateRight(grandParent);
+            } else {
+                int uncle = left[grandParent];
+                if (isRed(uncle)) {
+                    setRed(parentNode, false);
+                    setRed(uncle, false);
+                    setRed(grandParent, true);
+                    node = grandParent;
+                    continue;
+                }
+                if (node == left[parentNode]) {
+                    node = parentNode;
+                    rotateRight(node);
+                    parentNode = parent[node];
+                }
+                setRed(parentNode, false);
+                setRed(grandParent, true);
+                rotateLeft(grandParent);
+            }
+        }
+        setRed(root, false);
+    }
+
+    // A node with two children is replaced by its successor, whose own slot is then unlinked.
+    // The child moving up may be nil, its parent link is set anyway for the fix-up to follow
+    private void deleteNode(int node) {
+        int moved;
+        boolean removedRed;
+        if (left[node] == NIL) {
+            moved = right[node];
+            removedRed = isRed(node);
+            transplant(node, moved);
+        } else if (right[node] == NIL) {
+            moved = left[node];
+            removedRed = isRed(node);
+            transplant(node, moved);
+        } else {
+            int next = minimum(right[node]);
+            removedRed = isRed(next);
+            moved = right[next];
+            if (parent[next] == node) {
+                parent[moved] = next;
+            } else {
+                transplant(next, moved);
+                right[next] = right[node];
+                parent[right[next]] = next;
+            }
+            transplant(node, next);
+            left[next] = left[node];
+            parent[left[next]] = next;
+            setRed(next, isRed(node));
+        }
+        if (!removedRed) {
+            fixAfterDelete(moved);
+        }
+        freeNode(node);
+    }
+
+    private void fixAfterDelete(int node) {
+        while (node != root && !isRed(node)) {
+            int parentNode = parent[node];
+            if (node == left[parentNode]) {
+                int sibling = right[parentNode];
+                if (isRed(sibling)) {
+                    setRed(sibling, false);
+                    setRed(parentNode, true);
+                    rotateLeft(parentNode);
+                    sibling = right[parentNode];
+                }
+                if (!isRed(left[sibling]) && !isRed(right[sibling])) {
+                    setRed(sibling, true);
+                    node = parentNode;
+                    continue;
+                }
+                if (!isRed(right[sibling])) {
+                    setRed(left[sibling], false);
+                    setRed(sibling, true);
+                    rotateRight(sibling);
+                    sibling = right[parentNode];
+                }
+                setRed(sibling, isRed(parentNode));
+                setRed(parentNode, false);
+                setRed(right[sibling], false);
+                rotateLeft(parentNode);
+            } else {
+                int sibling = left[parentNode];
+                if (isRed(sibling)) {
+                    setRed(sibling, false);
+                    setRed(parentNode, true);
+                    rotateRight(parentNode);
+                    sibling = left[parentNode];
+                }
+                if (!isRed(left[sibling]) && !isRed(right[sibling])) {
+                    setRed(sibling, true);
+                    node = parentNode;
+                    continue;
+                }
+                if (!isRed(left[sibling])) {
+                    setRed(right[sibling], false);
+                    setRed(sibling, true);
+                    rotateLeft(sibling);
+                    sibling = left[parentNode];
+                }
+                setRed(sibling, isRed(parentNode));
+                setRed(parentNode, false);
+                setRed(left[sibling], false);
+                rotateRight(parentNode);
+            }
+            node = root;
+        }
+        setRed(node, false);
+    }
+
+    private void transplant(int node, int replacement) {
+        int parentNode = parent[node];
+        if (parentNode == NIL) {
+            root = replacement;
+        } else if (node == left[parentNode]) {
+            left[parentNode] = replacement;
+        } else {
+            right[parentNode] = replacement;
+        }
+        parent[replacement] = parentNode;
+    }
+
+    private void rotateLeft(int top) {
+        int pivot = right[top];
+        right[top] = left[pivot];
+        if (left[pivot] != NIL) {
+            parent[left[pivot]] = top;
+        }
+        transplant(top, pivot);
+        left[pivot] = top;
+        parent[top] = pivot;
+    }
+
+    private void rotateRight(int top) {
+        int pivot = left[top];
+        left[top] = right[pivot];
+        if (right[pivot] != NIL) {
+            parent[right[pivot]] = top;
+        }
+        transplant(top, pivot);
+        right[pivot] = top;
+        parent[top] = pivot;
+    }
+
+    private int minimum(int node) {
+        if (node == NIL) {
+            return NIL;
+        }
+        while (left[node] != NIL) {
+            node = left[node];
+        }
+        return node;
+    }
+
+    private int maximum(int node) {
+        if (node == NIL) {
+            return NIL;
+        }
+        while (right[node] != NIL) {
+            node = right[node];
+        }
+        return node;
+    }
+
+    private int successor(int node) {
+        if (right[node] != NIL) {
+            return minimum(right[node]);
+        }
+        int parentNode = parent[node];
+        while (parentNode != NIL && node == right[parentNode]) {
+            node = parentNode;
+            parentNode = parent[parentNode];
+        }
+        return parentNode;
+    }
+
+    // Takes a slot from the free list, or the next unused one, as a red leaf
+    private int newNode(Object key, Object value) {
+        int toReturn = freeList;
+        if (toReturn != NIL) {
+            freeList = left[toReturn];
+        } else {
+            if (nextSlot == keys.length) {
+                if (nextSlot == MAXIMUM_CAPACITY) {
+                    throw new IllegalStateException("Map is full");
+                }
+                grow((int) Math.min(MAXIMUM_CAPACITY, (long) nextSlot << 1));
+            }
+            toReturn = nextSlot++;
+        }
+        keys[toReturn] = key;
+        values[toReturn] = value;
+        left[toReturn] = NIL;
+        right[toReturn] = NIL;
+        setRed(toReturn, true);
+        return toReturn;
+    }
+
+    private void freeNode(int node) {
+        keys[node] = null;
+        values[node] = null;
+        setRed(node, false);
+        left[node] = freeList;
+        freeList = node;
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        parent = new int[capacity];
+        red = new long[(capacity + 63) >>> 6];
+    }
+
+    private void grow(int capacity) {
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        red = Arrays.copyOf(red, (capacity + 63) >>> 6);
+    }
+
+    private boolean isRed(int node) {
+        return (red[node >>> 6] & 1L << node) != 0;
+    }
+
+    private void setRed(int node, boolean isRed) {
+        if (isRed) {
+            red[node >>> 6] |= 1L << node;
+        } else {
+            red[node >>> 6] &= ~(1L << node);
+        }
+    }
+
+    private int compare(Object o1, Object o2) {
+        return this.comparator == null
+                ? ((Comparable) o1).compareTo(o2) : this.comparator.compare(o1, o2);
+    }
+
+    private Object key(int node) {
+        if (node == NIL) {
+            throw new NoSuchElementException();
+        }
+        return keys[node];
+    }
+
+    private Object keyOrNull(int node) {
+        return node == NIL ? null : keys[node];
+    }
+}
@@ -0,0 +1,578 @@
+package EPAM2015_lab9;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+// Bounded map evicting by a policy once the total weight of its entries exceeds the maximum.
+// Every operation is O(1) under the cache monitor; loads run outside it
+public class MyCache implements MyMap {
+
+    public enum Policy {
+        // Evicts the least recently used entry
+        LRU,
+        // A small LRU window admits new entries; they enter the segmented LRU main space only if
+        // the frequency sketch rates them above the main space's eviction victim
+        TINY_LFU
+    }
+
+    public static final class Stats {
+
+        private final long hitCount;
+        private final long missCount;
+        private final long loadCount;
+        private final long evictionCount;
+
+        private Stats(long hitCount, long missCount, long loadCount, long evictionCount) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.loadCount = loadCount;
+            this.evictionCount = evictionCount;
+        }
+
+        public long hitCount() {
+            return hitCount;
+        }
+
+        public long missCount() {
+            return missCount;
+        }
+
+        public long loadCount() {
+            return loadCount;
+        }
+
+        public long evictionCount() {
+            return evictionCount;
+        }
+
+        public double hitRate() {
+            long requestCount = hitCount + missCount;
+            return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hitCount + ", misses=" + missCount + ", loads=" + loadCount
+                    + ", evictions=" + evictionCount;
+        }
+    }
+
+    private static final class Node {
+
+        private final Object key;
+        private Object value;
+        private int weight;
+        private Node prev;
+        private Node next;
+        private AccessOrder queue;
+
+        private Node(Object key, Object value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    // In-flight load, remembers its thread so a loader asking for its own key fails instead of
+    // waiting for itself
+    private static final class Load extends CompletableFuture<Object> {
+
+        private final Thread loader = Thread.currentThread();
+    }
+
+    // Intrusive doubly-linked list from least to most recently used
+    private static final class AccessOrder {
+
+        private Node head;
+        private Node tail;
+        private long weight;
+
+        private void addLast(Node node) {
+            node.queue = this;
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            weight += node.weight;
+        }
+
+        private void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.queue = null;
+            weight -= node.weight;
+        }
+
+        private void moveToLast(Node node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        private void clear() {
+            head = null;
+            tail = null;
+            weight = 0;
+        }
+    }
+
+    // Count-min sketch of 4-bit counters, halved every sampleSize increments so old popularity fades
+    private static final class FrequencySketch {
+
+        private static final long[] SEED = {0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L,
+                0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private long[] table = new long[16];
+        private int sampleSize = 160;
+        private int additions;
+
+        // The sketch forgets its history when it grows, which only happens while the cache fills up
+        private void ensureCapacity(int maximumSize) {
+            int capacity = Math.min(maximumSize, 1 << 30);
+            if (table.length >= capacity) {
+                return;
+            }
+            table = new long[Integer.highestOneBit(capacity - 1) << 1];
+            sampleSize = 10 * table.length;
+            additions = 0;
+        }
+
+        private int frequency(int hash) {
+            int start = (hash & 3) << 2;
+            int toReturn = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int offset = (start + i) << 2;
+                toReturn = Math.min(toReturn, (int) (table[indexOf(hash, i)] >>> offset & 0xF));
+            }
+            return toReturn;
+        }
+
+        private void increment(int hash) {
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = (start + i) << 2;
+                if ((table[index] >>> offset & 0xF) != 0xF) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = table[i] >>> 1 & RESET_MASK;
+                }
+                additions >>>= 1;
+            }
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEED[row]) * SEED[row];
+            h += h >>> 32;
+            return (int) h & table.length - 1;
+        }
+    }
+
+    // Copy taken under the cache monitor, setValue writes through to the cache
+    private class SimpleEntry implements MyMap.Entry {
+
+        private final Object key;
+        private Object value;
+
+        public SimpleEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object toReturn = this.value;
+            put(key, this.value = value);
+            return toReturn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.equals(key, ((MyMap.Entry) o).getKey()) &&
+                    Objects.equals(value, ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private final Entry[] entries;
+        private int index;
+
+        private EntryIterator() {
+            synchronized (MyCache.this) {
+                entries = new Entry[data.size()];
+                Iterator iter = data.entryIterator();
+                for (int i = 0; i < entries.length; i++) {
+                    Node node = (Node) ((Entry) iter.next()).getValue();
+                    entries[i] = new SimpleEntry(node.key, node.value);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < entries.length;
+        }
+
+        @Override
+        public Entry next() {
+            if (index >= entries.length) {
+                throw new NoSuchElementException();
+            }
+            return entries[index++];
+        }
+    }
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final MyHashMap data = new MyHashMap();
+    private final MyHashMap loading = new MyHashMap();
+    private final long maximumWeight;
+    private final ToIntBiFunction<Object, Object> weigher;
+    private final Policy policy;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    // Under LRU every entry lives in probation
+    private final AccessOrder window = new AccessOrder();
+    private final AccessOrder probation = new AccessOrder();
+    private final AccessOrder protect = new AccessOrder();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private long hitCount;
+    private long missCount;
+    private long loadCount;
+    private long evictionCount;
+
+    public MyCache(long maximumSize) {
+        this(maximumSize, Policy.TINY_LFU);
+    }
+
+    public MyCache(long maximumSize, Policy policy) {
+        this(maximumSize, (k, v) -> 1, policy);
+    }
+
+    // Bounds the summed weights instead of the entry count
+    public MyCache(long maximumWeight, ToIntBiFunction<Object, Object> weigher, Policy policy) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Illegal maximum weight: " + maximumWeight);
+        }
+        this.maximumWeight = maximumWeight;
+        this.weigher = Objects.requireNonNull(weigher);
+        this.policy = Objects.requireNonNull(policy);
+        this.windowMaximum = Math.max(1, percentOf(maximumWeight, WINDOW_PERCENT));
+        this.protectedMaximum = percentOf(maximumWeight - windowMaximum, PROTECTED_PERCENT);
+    }
+
+    @Override
+    public synchronized void clear() {
+        data.clear();
+        window.clear();
+        probation.clear();
+        protect.clear();
+    }
+
+    // Does not count as an access
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return data.containsKey(key);
+    }
+
+    @Override
+    public synchronized boolean containsValue(Object value) {
+        Iterator iter = data.entryIterator();
+        while (iter.hasNext()) {
+            if (Objects.equals(((Node) ((Entry) iter.next()).getValue()).value, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The other compute methods run the function under the cache lock, so they are atomic but, unlike
+    // computeIfAbsent, block every other caller while it runs
+    @Override
+    public synchronized Object compute(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        return MyMap.super.compute(key, remappingFunction);
+    }
+
+    // Returns the cached value or loads it; concurrent callers for the same key wait for a single
+    // load. A null result is not cached, a failed load is rethrown to every waiter and a value put
+    // while the load was running wins over the loaded one. A loader asking for its own key gets an
+    // IllegalStateException
+    @Override
+    public Object computeIfAbsent(Object key, Function<Object, Object> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        Load future;
+        boolean loader = false;
+        synchronized (this) {
+            Object value = get(key);
+            if (value != null || data.containsKey(key)) {
+                return value;
+            }
+            future = (Load) loading.get(key);
+            if (future != null && future.loader == Thread.currentThread()) {
+                throw new IllegalStateException("Recursive load");
+            }
+            if (future == null) {
+                future = new Load();
+                loading.put(key, future);
+                loader = true;
+            }
+        }
+        if (!loader) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+        Object value;
+        try {
+            value = mappingFunction.apply(key);
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                loading.remove(key);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            loading.remove(key);
+            loadCount++;
+            Node node = (Node) data.get(key);
+            if (node != null) {
+                value = node.value;
+            } else if (value != null) {
+                putEntry(key, value);
+            }
+        }
+        future.complete(value);
+        return value;
+    }
+
+    @Override
+    public synchronized Object computeIfPresent(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        return MyMap.super.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+        recordAccess(key);
+        Node node = (Node) data.get(key);
+        if (node == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        onAccess(node);
+        return node.value;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public synchronized Object merge(Object key, Object value, BiFunction<Object, Object, Object> remappingFunction) {
+        return MyMap.super.merge(key, value, remappingFunction);
+    }
+
+    // An entry heavier than the maximum weight is not retained
+    @Override
+    public synchronized Object put(Object key, Object value) {
+        recordAccess(key);
+        return putEntry(key, value);
+    }
+
+    @Override
+    public synchronized Object putIfAbsent(Object key, Object value) {
+        return MyMap.super.putIfAbsent(key, value);
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        Node node = (Node) data.remove(key);
+        if (node == null) {
+            return null;
+        }
+        node.queue.remove(node);
+        return node.value;
+    }
+
+    @Override
+    public synchronized int size() {
+        return data.size();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hitCount, missCount, loadCount, evictionCount);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+
+    private Object putEntry(Object key, Object value) {
+        int weight = weigher.applyAsInt(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Illegal weight: " + weight);
+        }
+        Node node = (Node) data.get(key);
+        Object toReturn = null;
+        if (node != null) {
+            toReturn = node.value;
+            AccessOrder queue = node.queue;
+            queue.remove(node);
+            node.value = value;
+            node.weight = weight;
+            queue.addLast(node);
+            onAccess(node);
+        } else {
+            node = new Node(key, value, weight);
+            data.put(key, node);
+            if (policy == Policy.TINY_LFU) {
+                sketch.ensureCapacity(data.size());
+            }
+            (policy == Policy.LRU ? probation : window).addLast(node);
+        }
+        evict();
+        return toReturn;
+    }
+
+    private void evict() {
+        if (policy == Policy.LRU) {
+            while (totalWeight() > maximumWeight) {
+                evict(probation.head);
+            }
+            return;
+        }
+        int candidates = 0;
+        while (window.weight > windowMaximum) {
+            Node node = window.head;
+            window.remove(node);
+            probation.addLast(node);
+            candidates++;
+        }
+        while (totalWeight() > maximumWeight) {
+            Node victim = probation.head != null ? probation.head
+                    : protect.head != null ? protect.head : window.head;
+            Node candidate = candidates > 0 ? probation.tail : null;
+            if (candidate == null || candidate == victim) {
+                if (victim == candidate) {
+                    candidates--;
+                }
+                evict(victim);
+            } else if (sketch.frequency(MyHashMap.hash(candidate.key))
+                    > sketch.frequency(MyHashMap.hash(victim.key))) {
+                evict(victim);
+            } else {
+                evict(candidate);
+                candidates--;
+            }
+        }
+    }
+
+    private void evict(Node node) {
+        node.queue.remove(node);
+        data.remove(node.key);
+        evictionCount++;
+    }
+
+    // Promotes a probation entry into the protected segment, demoting the protected LRU on overflow
+    private void onAccess(Node node) {
+        if (policy == Policy.LRU || node.queue != probation) {
+            node.queue.moveToLast(node);
+            return;
+        }
+        probation.remove(node);
+        protect.addLast(node);
+        while (protect.weight > protectedMaximum && protect.head != node) {
+            Node demoted = protect.head;
+            protect.remove(demoted);
+            probation.addLast(demoted);
+        }
+    }
+
+    private void recordAccess(Object key) {
+        if (policy == Policy.TINY_LFU) {
+            sketch.increment(MyHashMap.hash(key));
+        }
+    }
+
+    private long totalWeight() {
+        return window.weight + probation.weight + protect.weight;
+    }
+
+    // Floor of weight * percent / 100 without the product, which overflows for weights near Long.MAX_VALUE
+    private static long percentOf(long weight, int percent) {
+        return weight / 100 * percent + weight % 100 * percent / 100;
+    }
+}
@@ -0,0 +1,660 @@
+package EPAM2015_lab9;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+public class MyConcurrentHashMap implements MyMap {
+
+    private static class SimpleEntry implements MyMap.Entry {
+
+        final int hashCode;
+        final Object key;
+        volatile Object value;
+        volatile SimpleEntry next;
+
+        public SimpleEntry(int hashCode, Object key, Object value, SimpleEntry next) {
+            this.hashCode = hashCode;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.equals(key, ((MyMap.Entry) o).getKey()) &&
+                    Objects.equals(value, ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    // Placed into a moved basket of the old table; readers and writers follow it to the new table
+    private static final class ForwardingEntry extends SimpleEntry {
+
+        final AtomicReferenceArray<SimpleEntry> nextTable;
+
+        public ForwardingEntry(AtomicReferenceArray<SimpleEntry> nextTable) {
+            super(MOVED, null, null, null);
+            this.nextTable = nextTable;
+        }
+    }
+
+    // Locked and placed into an empty basket while a compute call runs there; other writers of the
+    // basket wait on it, readers and the iterator see an empty basket
+    private static final class ReservationEntry extends SimpleEntry {
+
+        public ReservationEntry() {
+            super(RESERVED, null, null, null);
+        }
+    }
+
+    // Snapshot handed out by the iterator, setValue writes through to the map
+    private final class MapEntry implements MyMap.Entry {
+
+        private final Object key;
+        private Object value;
+
+        public MapEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object toReturn = this.value;
+            put(key, this.value = value);
+            return toReturn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.equals(key, ((MyMap.Entry) o).getKey()) &&
+                    Objects.equals(value, ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    // Weakly consistent: never throws ConcurrentModificationException and follows
+    // forwarded baskets, so every entry present for the whole traversal is returned once
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private final AtomicReferenceArray<SimpleEntry> baseTable = table;
+        private final ArrayDeque<Object[]> pending = new ArrayDeque<>();
+        private int baseIndex;
+        private SimpleEntry nextEntry;
+
+        private EntryIterator() {
+            advance(null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextEntry != null;
+        }
+
+        @Override
+        public Entry next() {
+            SimpleEntry curEntry = nextEntry;
+            if (curEntry == null) {
+                throw new NoSuchElementException();
+            }
+            advance(curEntry);
+            return new MapEntry(curEntry.key, curEntry.value);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance(SimpleEntry curEntry) {
+            curEntry = curEntry == null ? null : curEntry.next;
+            while (curEntry == null) {
+                AtomicReferenceArray<SimpleEntry> tab;
+                int index;
+                Object[] bin = pending.poll();
+                if (bin != null) {
+                    tab = (AtomicReferenceArray<SimpleEntry>) bin[0];
+                    index = (Integer) bin[1];
+                } else if (baseIndex < baseTable.length()) {
+                    tab = baseTable;
+                    index = baseIndex++;
+                } else {
+                    break;
+                }
+                SimpleEntry head = tab.get(index);
+                if (head instanceof ForwardingEntry) {
+                    // Old basket i was split into baskets i and i + n of the next table
+                    AtomicReferenceArray<SimpleEntry> nextTab = ((ForwardingEntry) head).nextTable;
+                    pending.push(new Object[]{nextTab, index + tab.length()});
+                    pending.push(new Object[]{nextTab, index});
+                } else if (!(head instanceof ReservationEntry)) {
+                    curEntry = head;
+                }
+            }
+            nextEntry = curEntry;
+        }
+    }
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int MIN_TRANSFER_STRIDE = 16;
+    private static final int RESIZE_STAMP_BITS = 16;
+    private static final int RESIZE_STAMP_SHIFT = 32 - RESIZE_STAMP_BITS;
+    private static final int MAX_RESIZERS = (1 << 32 - RESIZE_STAMP_BITS) - 1;
+    private static final int MOVED = -1;
+    private static final int RESERVED = -2;
+    private static final int HASH_BITS = 0x7fffffff;
+    private static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    private volatile AtomicReferenceArray<SimpleEntry> table;
+    private volatile AtomicReferenceArray<SimpleEntry> nextTable;
+    // Resize threshold, or while resizing the resize stamp in the high bits plus 1 + active resizers
+    private final AtomicInteger sizeCtl = new AtomicInteger();
+    private final AtomicInteger transferIndex = new AtomicInteger();
+    private final LongAdder counter = new LongAdder();
+
+    public MyConcurrentHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public MyConcurrentHashMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: "
+                    + initialCapacity);
+        }
+        int capacity = initialCapacity >= MAXIMUM_CAPACITY >>> 1 ? MAXIMUM_CAPACITY
+                : tableSizeFor(initialCapacity + (initialCapacity >>> 1) + 1);
+        this.table = new AtomicReferenceArray<>(capacity);
+        this.sizeCtl.set(capacity - (capacity >>> 2));
+    }
+
+    @Override
+    public void clear() {
+        long delta = 0;
+        AtomicReferenceArray<SimpleEntry> tab = table;
+        int i = 0;
+        while (i < tab.length()) {
+            SimpleEntry head = tab.get(i);
+            if (head == null) {
+                i++;
+            } else if (head.hashCode == MOVED) {
+                tab = helpTransfer(tab, head);
+                i = 0;
+            } else {
+                synchronized (head) {
+                    if (tab.get(i) == head) {
+                        for (SimpleEntry curEntry = head; curEntry != null; curEntry = curEntry.next) {
+                            delta--;
+                        }
+                        tab.set(i++, null);
+                    }
+                }
+            }
+        }
+        if (delta != 0) {
+            counter.add(delta);
+        }
+    }
+
+    // The compute family runs the function under the basket lock, so it sees and replaces the
+    // current value atomically; the function must not update this map
+    @Override
+    public Object compute(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return remap(key, remappingFunction, false);
+    }
+
+    @Override
+    public Object computeIfAbsent(Object key, Function<Object, Object> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        Object value = get(key);
+        if (value != null) {
+            return value;
+        }
+        return remap(key, (k, oldValue) -> oldValue != null ? oldValue : mappingFunction.apply(k), false);
+    }
+
+    @Override
+    public Object computeIfPresent(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return remap(key, (k, oldValue) -> oldValue == null ? null : remappingFunction.apply(k, oldValue), false);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Objects.requireNonNull(value);
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            if (value.equals(((Entry) iter.next()).getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    @Override
+    public Object get(Object key) {
+        int hashCode = spread(key.hashCode());
+        AtomicReferenceArray<SimpleEntry> tab = table;
+        while (true) {
+            SimpleEntry curEntry = tab.get(hashCode & tab.length() - 1);
+            if (curEntry instanceof ForwardingEntry) {
+                tab = ((ForwardingEntry) curEntry).nextTable;
+                continue;
+            }
+            while (curEntry != null) {
+                if (curEntry.hashCode == hashCode && key.equals(curEntry.key)) {
+                    return curEntry.value;
+                }
+                curEntry = curEntry.next;
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return counter.sum() <= 0;
+    }
+
+    @Override
+    public Object merge(Object key, Object value, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        return remap(key, (k, oldValue) -> oldValue == null ? value : remappingFunction.apply(oldValue, value), false);
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        int hashCode = spread(key.hashCode());
+        int binCount = 0;
+        AtomicReferenceArray<SimpleEntry> tab = table;
+        while (true) {
+            int tableIndex = hashCode & tab.length() - 1;
+            SimpleEntry head = tab.get(tableIndex);
+            if (head == null) {
+                if (tab.compareAndSet(tableIndex, null, new SimpleEntry(hashCode, key, value, null))) {
+                    break;
+                }
+            } else if (head.hashCode == MOVED) {
+                tab = helpTransfer(tab, head);
+            } else {
+                Object toReturn = null;
+                synchronized (head) {
+                    if (tab.get(tableIndex) == head) {
+                        binCount = 1;
+                        for (SimpleEntry curEntry = head; ; binCount++) {
+                            if (curEntry.hashCode == hashCode && key.equals(curEntry.key)) {
+                                toReturn = curEntry.value;
+                                curEntry.value = value;
+                                break;
+                            }
+                            if (curEntry.next == null) {
+                                curEntry.next = new SimpleEntry(hashCode, key, value, null);
+                                break;
+                            }
+                            curEntry = curEntry.next;
+                        }
+                    }
+                }
+                if (binCount != 0) {
+                    if (toReturn != null) {
+                        return toReturn;
+                    }
+                    break;
+                }
+            }
+        }
+        addCount(1);
+        return null;
+    }
+
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        Objects.requireNonNull(value);
+        return remap(key, (k, oldValue) -> oldValue != null ? oldValue : value, true);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int hashCode = spread(key.hashCode());
+        AtomicReferenceArray<SimpleEntry> tab = table;
+        while (true) {
+            int tableIndex = hashCode & tab.length() - 1;
+            SimpleEntry head = tab.get(tableIndex);
+            if (head == null) {
+                return null;
+            }
+            if (head.hashCode == MOVED) {
+                tab = helpTransfer(tab, head);
+                continue;
+            }
+            boolean validated = false;
+            Object toReturn = null;
+            synchronized (head) {
+                if (tab.get(tableIndex) == head) {
+                    validated = true;
+                    SimpleEntry prevEntry = null;
+                    for (SimpleEntry curEntry = head; curEntry != null; curEntry = curEntry.next) {
+                        if (curEntry.hashCode == hashCode && key.equals(curEntry.key)) {
+                            toReturn = curEntry.value;
+                            if (prevEntry == null) {
+                                tab.set(tableIndex, curEntry.next);
+                            } else {
+                                prevEntry.next = curEntry.next;
+                            }
+                            break;
+                        }
+                        prevEntry = curEntry;
+                    }
+                }
+            }
+            if (validated) {
+                if (toReturn != null) {
+                    counter.decrement();
+                }
+                return toReturn;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        long sum = counter.sum();
+        return sum < 0 ? 0 : sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+
+    private void addCount(long delta) {
+        counter.add(delta);
+        long sum = counter.sum();
+        AtomicReferenceArray<SimpleEntry> tab;
+        int sc;
+        int n;
+        while (sum >= (sc = sizeCtl.get()) && (n = (tab = table).length()) < MAXIMUM_CAPACITY) {
+            int rs = resizeStamp(n) << RESIZE_STAMP_SHIFT;
+            if (sc < 0) {
+                AtomicReferenceArray<SimpleEntry> nextTab = nextTable;
+                if (sc == rs + MAX_RESIZERS || sc == rs + 1 || nextTab == null || transferIndex.get() <= 0) {
+                    break;
+                }
+                if (sizeCtl.compareAndSet(sc, sc + 1)) {
+                    transfer(tab, nextTab);
+                }
+            } else if (sizeCtl.compareAndSet(sc, rs + 2)) {
+                transfer(tab, null);
+            }
+            sum = counter.sum();
+        }
+    }
+
+    // Stores remappingFunction(key, current value or null) and removes the key for a null result.
+    // An empty basket is claimed with a locked reservation, so the function runs exactly once
+    private Object remap(Object key, BiFunction<Object, Object, Object> remappingFunction, boolean returnOld) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int hashCode = spread(key.hashCode());
+        AtomicReferenceArray<SimpleEntry> tab = table;
+        while (true) {
+            int tableIndex = hashCode & tab.length() - 1;
+            SimpleEntry head = tab.get(tableIndex);
+            if (head == null) {
+                ReservationEntry reservation = new ReservationEntry();
+                Object newValue = null;
+                boolean reserved;
+                synchronized (reservation) {
+                    reserved = tab.compareAndSet(tableIndex, null, reservation);
+                    if (reserved) {
+                        try {
+                            newValue = remappingFunction.apply(key, null);
+                        } finally {
+                            tab.set(tableIndex, newValue == null ? null : new SimpleEntry(hashCode, key, newValue, null));
+                        }
+                    }
+                }
+                if (reserved) {
+                    if (newValue != null) {
+                        addCount(1);
+                    }
+                    return returnOld ? null : newValue;
+                }
+            } else if (head.hashCode == MOVED) {
+                tab = helpTransfer(tab, head);
+            } else {
+                boolean validated = false;
+                Object oldValue = null;
+                Object newValue = null;
+                int delta = 0;
+                synchronized (head) {
+                    if (tab.get(tableIndex) == head) {
+                        validated = true;
+                        SimpleEntry prevEntry = null;
+                        SimpleEntry curEntry = head;
+                        while (curEntry != null && !(curEntry.hashCode == hashCode && key.equals(curEntry.key))) {
+                            prevEntry = curEntry;
+                            curEntry = curEntry.next;
+                        }
+                        oldValue = curEntry == null ? null : curEntry.value;
+                        newValue = remappingFunction.apply(key, oldValue);
+                        if (curEntry == null) {
+                            if (newValue != null) {
+                                prevEntry.next = new SimpleEntry(hashCode, key, newValue, null);
+                                delta = 1;
+                            }
+                        } else if (newValue != null) {
+                            curEntry.value = newValue;
+                        } else {
+                            if (prevEntry == null) {
+                                tab.set(tableIndex, curEntry.next);
+                            } else {
+                                prevEntry.next = curEntry.next;
+                            }
+                            delta = -1;
+                        }
+                    }
+                }
+                if (validated) {
+                    if (delta > 0) {
+                        addCount(1);
+                    } else if (delta < 0) {
+                        counter.decrement();
+                    }
+                    return returnOld ? oldValue : newValue;
+                }
+            }
+        }
+    }
+
+    private AtomicReferenceArray<SimpleEntry> helpTransfer(AtomicReferenceArray<SimpleEntry> tab,
+                                                           SimpleEntry head) {
+        AtomicReferenceArray<SimpleEntry> nextTab = ((ForwardingEntry) head).nextTable;
+        int rs = resizeStamp(tab.length()) << RESIZE_STAMP_SHIFT;
+        int sc;
+        while (nextTab == nextTable && table == tab && (sc = sizeCtl.get()) < 0) {
+            if (sc == rs + MAX_RESIZERS || sc == rs + 1 || transferIndex.get() <= 0) {
+                break;
+            }
+            if (sizeCtl.compareAndSet(sc, sc + 1)) {
+                transfer(tab, nextTab);
+                break;
+            }
+        }
+        return nextTab;
+    }
+
+    // Moves baskets to nextTab in strides claimed from transferIndex, so any number of
+    // threads can help. Nodes are copied because readers may still be walking old chains.
+    private void transfer(AtomicReferenceArray<SimpleEntry> tab, AtomicReferenceArray<SimpleEntry> nextTab) {
+        int n = tab.length();
+        int stride = Math.max(NCPU > 1 ? (n >>> 3) / NCPU : n, MIN_TRANSFER_STRIDE);
+        if (nextTab == null) {
+            nextTab = new AtomicReferenceArray<>(n << 1);
+            nextTable = nextTab;
+            transferIndex.set(n);
+        }
+        ForwardingEntry forward = new ForwardingEntry(nextTab);
+        boolean advance = true;
+        boolean finishing = false;
+        for (int i = 0, bound = 0; ; ) {
+            while (advance) {
+                int nextIndex;
+                if (--i >= bound || finishing) {
+                    advance = false;
+                } else if ((nextIndex = transferIndex.get()) <= 0) {
+                    i = -1;
+                    advance = false;
+                } else {
+                    int nextBound = nextIndex > stride ? nextIndex - stride : 0;
+                    if (transferIndex.compareAndSet(nextIndex, nextBound)) {
+                        bound = nextBound;
+                        i = nextIndex - 1;
+                        advance = false;
+                    }
+                }
+            }
+            if (i < 0) {
+                if (finishing) {
+                    nextTable = null;
+                    table = nextTab;
+                    sizeCtl.set((n << 1) - (n >>> 1));
+                    return;
+                }
+                int sc = sizeCtl.get();
+                if (sizeCtl.compareAndSet(sc, sc - 1)) {
+                    if (sc - 2 != resizeStamp(n) << RESIZE_STAMP_SHIFT) {
+                        return;
+                    }
+                    // Last resizer out rechecks every basket before publishing the new table
+                    finishing = advance = true;
+                    i = n;
+                }
+                continue;
+            }
+            SimpleEntry head = tab.get(i);
+            if (head == null) {
+                advance = tab.compareAndSet(i, null, forward);
+            } else if (head.hashCode == MOVED) {
+                advance = true;
+            } else {
+                synchronized (head) {
+                    if (tab.get(i) == head) {
+                        // The trailing run that already agrees on its target basket is reused as is
+                        int runBit = head.hashCode & n;
+                        SimpleEntry lastRun = head;
+                        for (SimpleEntry curEntry = head.next; curEntry != null; curEntry = curEntry.next) {
+                            int bit = curEntry.hashCode & n;
+                            if (bit != runBit) {
+                                runBit = bit;
+                                lastRun = curEntry;
+                            }
+                        }
+                        SimpleEntry low = runBit == 0 ? lastRun : null;
+                        SimpleEntry high = runBit == 0 ? null : lastRun;
+                        for (SimpleEntry curEntry = head; curEntry != lastRun; curEntry = curEntry.next) {
+                            if ((curEntry.hashCode & n) == 0) {
+                                low = new SimpleEntry(curEntry.hashCode, curEntry.key, curEntry.value, low);
+                            } else {
+                                high = new SimpleEntry(curEntry.hashCode, curEntry.key, curEntry.value, high);
+                            }
+                        }
+                        nextTab.set(i, low);
+                        nextTab.set(i + n, high);
+                        tab.set(i, forward);
+                        advance = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int resizeStamp(int n) {
+        return Integer.numberOfLeadingZeros(n) | (1 << (RESIZE_STAMP_BITS - 1));
+    }
+
+    private static int spread(int hashCode) {
+        return (hashCode ^ hashCode >>> 16) & HASH_BITS;
+    }
+
+    private static int tableSizeFor(int cap) {
+        if (--cap > 0) {
+            for (int mask = 1 << 30; mask > 0; mask >>>= 1) {
+                if ((mask & cap) > 0) {
+                    return mask >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : mask << 1;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,321 @@
+package EPAM2015_lab9;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+public class MyConcurrentTreeMap implements MyMap {
+
+    // Copy of an entry taken under a validated stamp, setValue writes through to the map
+    private class SimpleEntry implements MyMap.Entry {
+
+        private final Object key;
+        private Object value;
+
+        public SimpleEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object toReturn = this.value;
+            put(key, this.value = value);
+            return toReturn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry &&
+                    Objects.equals(key, ((Entry) o).getKey()) &&
+                    Objects.equals(value, ((Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    // Weakly consistent iterator: while no writer intervenes it steps to the successor of the
+    // last node, otherwise it seeks the least key greater than the last one returned
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private Entry curNode;
+        private long stamp;
+        private boolean started;
+        private Object nextKey;
+        private Object nextValue;
+        private boolean hasNext;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            Entry toReturn = new SimpleEntry(nextKey, nextValue);
+            advance();
+            return toReturn;
+        }
+
+        private void advance() {
+            long optimisticStamp = lock.tryOptimisticRead();
+            if (optimisticStamp != 0) {
+                try {
+                    if (readNext(optimisticStamp)) {
+                        stamp = optimisticStamp;
+                        return;
+                    }
+                } catch (RuntimeException ignored) {
+                    // Torn read of a tree being restructured, retried under the read lock
+                }
+            }
+            long readStamp = lock.readLock();
+            try {
+                readNext(readStamp);
+            } finally {
+                stamp = lock.tryConvertToOptimisticRead(readStamp);
+            }
+        }
+
+        // Loads the next entry into the iterator state once the reads are validated,
+        // returns false and leaves the state untouched if the stamp was invalidated
+        private boolean readNext(long curStamp) {
+            Entry node;
+            if (!started) {
+                node = tree.higherEntry(null, MAX_STEPS);
+            } else if (curNode != null && stamp == curStamp) {
+                node = tree.successor(curNode, MAX_STEPS);
+            } else {
+                node = tree.higherEntry(nextKey, MAX_STEPS);
+            }
+            Object key = node == null ? null : node.getKey();
+            Object value = node == null ? null : node.getValue();
+            if (!lock.validate(curStamp)) {
+                return false;
+            }
+            started = true;
+            curNode = node;
+            hasNext = node != null;
+            nextKey = key;
+            nextValue = value;
+            return true;
+        }
+    }
+
+    // A red-black tree of 2^31 entries is at most 62 levels high; successor may climb and descend
+    private static final int MAX_STEPS = 128;
+
+    private final MyTreeMap tree;
+    private final StampedLock lock = new StampedLock();
+
+    public MyConcurrentTreeMap() {
+        this(null);
+    }
+
+    public MyConcurrentTreeMap(Comparator comparator) {
+        this.tree = new MyTreeMap(comparator);
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            tree.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // The compute family runs under the write lock with a single descent of the tree; the lock is
+    // not reentrant, so the function must not use this map
+    @Override
+    public Object compute(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.compute(key, remappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Object computeIfAbsent(Object key, Function<Object, Object> mappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.computeIfAbsent(key, mappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Object computeIfPresent(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.computeIfPresent(key, remappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                boolean toReturn = tree.findEntry(key, MAX_STEPS) != null;
+                if (lock.validate(stamp)) {
+                    return toReturn;
+                }
+            } catch (RuntimeException ignored) {
+                // Torn read of a tree being restructured, retried under the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.containsKey(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            if (Objects.equals(((Entry) iter.next()).getValue(), value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    @Override
+    public Object get(Object key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                Entry entry = tree.findEntry(key, MAX_STEPS);
+                Object toReturn = entry == null ? null : entry.getValue();
+                if (lock.validate(stamp)) {
+                    return toReturn;
+                }
+            } catch (RuntimeException ignored) {
+                // Torn read of a tree being restructured, retried under the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Object merge(Object key, Object value, BiFunction<Object, Object, Object> remappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.merge(key, value, remappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.put(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.putIfAbsent(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.remove(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int toReturn = tree.size();
+        if (lock.validate(stamp)) {
+            return toReturn;
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+}
@@ -0,0 +1,568 @@
+package EPAM2015_lab9;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+// Makes every mutation of the wrapped map durable before it returns. Mutations are appended to a
+// write-ahead log and concurrent writers share one fsync: the first waiter becomes the leader, writes
+// out everything appended so far and forces it outside the map lock while the others wait for it.
+// Keys and values must be String, byte[], Integer, Long or null
+public class MyDurableMap implements MyMap, Closeable {
+
+    // Copy taken under the read lock, setValue writes through to the map
+    private class SimpleEntry implements MyMap.Entry {
+
+        private final Object key;
+        private Object value;
+
+        public SimpleEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object toReturn = this.value;
+            put(key, this.value = value);
+            return toReturn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.equals(key, ((MyMap.Entry) o).getKey()) &&
+                    Objects.equals(value, ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private final Entry[] entries;
+        private int index;
+
+        private EntryIterator() {
+            lock.readLock().lock();
+            try {
+                entries = new Entry[map.size()];
+                Iterator iter = map.entryIterator();
+                for (int i = 0; i < entries.length; i++) {
+                    Entry curEntry = (Entry) iter.next();
+                    entries[i] = new SimpleEntry(curEntry.getKey(), curEntry.getValue());
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < entries.length;
+        }
+
+        @Override
+        public Entry next() {
+            if (index >= entries.length) {
+                throw new NoSuchElementException();
+            }
+            return entries[index++];
+        }
+    }
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+    private static final long DEFAULT_COMPACTION_THRESHOLD = 64L << 20;
+    private static final String LOG_FILE = "map.log";
+    private static final String SNAPSHOT_FILE = "map.snapshot";
+    // Log record layout: payload length, payload CRC, then the payload: op, key length, key, value
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int PAYLOAD_HEADER_SIZE = 1 + Integer.BYTES;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final boolean WINDOWS = System.getProperty("os.name").startsWith("Windows");
+
+    private final MyMap map;
+    private final Path snapshotPath;
+    private final FileChannel log;
+    private final long compactionThreshold;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object syncMonitor = new Object();
+    private final CRC32 crc = new CRC32();
+    // Guarded by the write lock
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    private long logSize;
+    private long appendedSequence;
+    private boolean closed;
+    // Guarded by syncMonitor
+    private long syncedSequence;
+    private boolean syncing;
+
+    public MyDurableMap(MyMap map, Path directory) throws IOException {
+        this(map, directory, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    // Restores the empty map from the snapshot and log in the directory, replaying the log up to
+    // the first torn or corrupted record
+    public MyDurableMap(MyMap map, Path directory, long compactionThreshold) throws IOException {
+        if (!map.isEmpty()) {
+            throw new IllegalArgumentException("Map to restore into is not empty");
+        }
+        if (compactionThreshold <= 0) {
+            throw new IllegalArgumentException("Illegal compaction threshold: " + compactionThreshold);
+        }
+        Files.createDirectories(directory);
+        this.map = map;
+        this.snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        this.compactionThreshold = compactionThreshold;
+        if (Files.exists(snapshotPath)) {
+            Iterator iter = MappedHashMap.open(snapshotPath).entryIterator();
+            while (iter.hasNext()) {
+                Entry curEntry = (Entry) iter.next();
+                map.put(curEntry.getKey(), curEntry.getValue());
+            }
+        }
+        this.log = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.logSize = replay();
+            log.truncate(logSize);
+            log.position(logSize);
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void clear() {
+        long sequence;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            map.clear();
+            sequence = append(CLEAR, new byte[0], new byte[0]);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            drain();
+            log.force(false);
+            closed = true;
+            log.close();
+            markDurable(appendedSequence);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Writes the map to a snapshot and starts an empty log; replaying the old log over the new
+    // snapshot yields the same state, and the log is only truncated once the rename of the new
+    // snapshot is durable, so a crash between the two steps loses nothing
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            compactLocked();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The compute family runs on the wrapped map under the write lock and logs the key's new state;
+    // the function must not update this map
+    @Override
+    public Object compute(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return update(key, target -> target.compute(key,
+                (k, oldValue) -> checkSupported(remappingFunction.apply(k, oldValue))));
+    }
+
+    @Override
+    public Object computeIfAbsent(Object key, Function<Object, Object> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        return update(key, target -> target.computeIfAbsent(key, k -> checkSupported(mappingFunction.apply(k))));
+    }
+
+    @Override
+    public Object computeIfPresent(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return update(key, target -> target.computeIfPresent(key,
+                (k, oldValue) -> checkSupported(remappingFunction.apply(k, oldValue))));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        lock.readLock().lock();
+        try {
+            return map.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        lock.readLock().lock();
+        try {
+            return map.containsValue(value);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    @Override
+    public Object get(Object key) {
+        lock.readLock().lock();
+        try {
+            return map.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Object merge(Object key, Object value, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        checkSupported(value);
+        return update(key, target -> target.merge(key, value,
+                (oldValue, v) -> checkSupported(remappingFunction.apply(oldValue, v))));
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        byte[] keyBytes = BinaryCodec.encode(key);
+        byte[] valueBytes = BinaryCodec.encode(value);
+        Object toReturn;
+        long sequence;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            toReturn = map.put(key, value);
+            sequence = append(PUT, keyBytes, valueBytes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        awaitDurable(sequence);
+        return toReturn;
+    }
+
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        checkSupported(value);
+        return update(key, target -> target.putIfAbsent(key, value));
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (!BinaryCodec.isSupported(key)) {
+            return null;
+        }
+        byte[] keyBytes = BinaryCodec.encode(key);
+        Object toReturn;
+        long sequence;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (!map.containsKey(key)) {
+                return null;
+            }
+            toReturn = map.remove(key);
+            sequence = append(REMOVE, keyBytes, new byte[0]);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        awaitDurable(sequence);
+        return toReturn;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return map.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+
+    // Applies the call to the wrapped map and appends a put or remove record if the key changed
+    private Object update(Object key, Function<MyMap, Object> operation) {
+        byte[] keyBytes = BinaryCodec.encode(key);
+        Object toReturn;
+        long sequence = 0;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            boolean present = map.containsKey(key);
+            Object oldValue = map.get(key);
+            toReturn = operation.apply(map);
+            if (map.containsKey(key)) {
+                Object newValue = map.get(key);
+                if (!present || newValue != oldValue) {
+                    sequence = append(PUT, keyBytes, BinaryCodec.encode(newValue));
+                }
+            } else if (present) {
+                sequence = append(REMOVE, keyBytes, new byte[0]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (sequence != 0) {
+            awaitDurable(sequence);
+        }
+        return toReturn;
+    }
+
+    // Rejects a computed value the log cannot store before it reaches the wrapped map
+    private static Object checkSupported(Object value) {
+        if (!BinaryCodec.isSupported(value)) {
+            throw new IllegalArgumentException("Unsupported type: " + value.getClass().getName());
+        }
+        return value;
+    }
+
+    // Buffers the record in memory under the write lock, the sync leader writes it out
+    private long append(byte op, byte[] key, byte[] value) {
+        int payloadSize = PAYLOAD_HEADER_SIZE + key.length + value.length;
+        int recordSize = RECORD_HEADER_SIZE + payloadSize;
+        if (pending.remaining() < recordSize) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() << 1, pending.position() + recordSize));
+            pending.flip();
+            pending = grown.put(pending);
+        }
+        int start = pending.position();
+        pending.putInt(payloadSize).putInt(0).put(op).putInt(key.length).put(key).put(value);
+        crc.reset();
+        crc.update(pending.array(), start + RECORD_HEADER_SIZE, payloadSize);
+        pending.putInt(start + Integer.BYTES, (int) crc.getValue());
+        logSize += recordSize;
+        long toReturn = ++appendedSequence;
+        if (logSize >= compactionThreshold) {
+            compactLocked();
+        }
+        return toReturn;
+    }
+
+    // Returns once the mutation with the given sequence number has been forced to disk
+    private void awaitDurable(long sequence) {
+        try {
+            for (;;) {
+                synchronized (syncMonitor) {
+                    while (syncing && syncedSequence < sequence) {
+                        syncMonitor.wait();
+                    }
+                    if (syncedSequence >= sequence) {
+                        return;
+                    }
+                    syncing = true;
+                }
+                long target = 0;
+                boolean synced = false;
+                try {
+                    boolean open;
+                    lock.writeLock().lock();
+                    try {
+                        // close() forces the log itself, so a closed map has nothing left to sync
+                        open = !closed;
+                        if (open) {
+                            drain();
+                        }
+                        target = appendedSequence;
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                    if (open) {
+                        log.force(false);
+                    }
+                    synced = true;
+                } finally {
+                    synchronized (syncMonitor) {
+                        syncing = false;
+                        if (synced) {
+                            syncedSequence = Math.max(syncedSequence, target);
+                        }
+                        syncMonitor.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted before the write was durable"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void compactLocked() {
+        try {
+            Path tempPath = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+            MappedSnapshot.writeHashed(tempPath, map);
+            Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(snapshotPath.getParent());
+            pending.clear();
+            log.truncate(0);
+            log.force(false);
+            logSize = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        markDurable(appendedSequence);
+    }
+
+    // Compacting rather than clearing keeps whatever a failed write left unwritten, so appends
+    // go after it and a retried sync writes the whole backlog
+    private void drain() throws IOException {
+        pending.flip();
+        try {
+            while (pending.hasRemaining()) {
+                log.write(pending);
+            }
+        } finally {
+            pending.compact();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Map is closed");
+        }
+    }
+
+    // A rename lives in the directory, which needs its own fsync on POSIX. Windows cannot open a
+    // directory as a channel and has no equivalent, so it is skipped there
+    private static void forceDirectory(Path directory) throws IOException {
+        if (WINDOWS) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private void markDurable(long sequence) {
+        synchronized (syncMonitor) {
+            syncedSequence = Math.max(syncedSequence, sequence);
+            syncMonitor.notifyAll();
+        }
+    }
+
+    // Applies every intact record and returns the length of the valid log prefix
+    private long replay() throws IOException {
+        long position = 0;
+        long size = log.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (readFully(header, position) == RECORD_HEADER_SIZE) {
+            int payloadSize = header.getInt(0);
+            if (payloadSize < PAYLOAD_HEADER_SIZE || payloadSize > size - position - RECORD_HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(payloadSize);
+            if (readFully(payload, position + RECORD_HEADER_SIZE) != payloadSize) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload.array(), 0, payloadSize);
+            if ((int) crc.getValue() != header.getInt(Integer.BYTES)) {
+                break;
+            }
+            apply(payload);
+            position += RECORD_HEADER_SIZE + payloadSize;
+        }
+        return position;
+    }
+
+    private void apply(ByteBuffer payload) {
+        byte op = payload.get(0);
+        int keyLength = payload.getInt(1);
+        switch (op) {
+            case PUT:
+                map.put(BinaryCodec.decode(payload, PAYLOAD_HEADER_SIZE, keyLength),
+                        BinaryCodec.decode(payload, PAYLOAD_HEADER_SIZE + keyLength,
+                                payload.limit() - PAYLOAD_HEADER_SIZE - keyLength));
+                break;
+            case REMOVE:
+                map.remove(BinaryCodec.decode(payload, PAYLOAD_HEADER_SIZE, keyLength));
+                break;
+            case CLEAR:
+                map.clear();
+                break;
+            default:
+                throw new IllegalStateException("Corrupted log, unknown operation: " + op);
+        }
+    }
+
+    private int readFully(ByteBuffer buf, long position) throws IOException {
+        buf.clear();
+        while (buf.hasRemaining()) {
+            if (log.read(buf, position + buf.position()) < 0) {
+                break;
+            }
+        }
+        return buf.position();
+    }
+}
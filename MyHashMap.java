@@ -1,18 +1,27 @@
 package EPAM2015_lab9;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class MyHashMap implements MyMap {
 
     private static class SimpleEntry implements MyHashMap.Entry {
 
-        private final int hashCode;
-        private final Object key;
-        private Object value;
-        private SimpleEntry next;
+        final int hashCode;
+        final Object key;
+        Object value;
+        SimpleEntry next;
 
         public SimpleEntry(int hashCode, Object key, Object value) {
             this.key = key;
@@ -57,6 +66,21 @@ public class MyHashMap implements MyMap {
         }
     }
 
+    // Node of a treeified bin, still linked through next so iteration is unchanged
+    private static final class TreeEntry extends SimpleEntry {
+
+        private TreeEntry parent;
+        private TreeEntry left;
+        private TreeEntry right;
+        private TreeEntry prev;
+        private boolean color;
+
+        public TreeEntry(int hashCode, Object key, Object value) {
+            super(hashCode, key, value);
+            this.color = RED;
+        }
+    }
+
     private class EntryIterator implements Iterator<MyMap.Entry> {
 
         private int count;
@@ -82,21 +106,181 @@ public class MyHashMap implements MyMap {
             return curEntry;
         }
 
+        // Baskets of an unfinished incremental resize follow the current table
         private SimpleEntry nextBasketHead() {
-            for (int i = ++curBasket; i < table.length; i++) {
-                if (table[i] != null) {
-                    return table[curBasket = i];
+            int oldLength = oldTable == null ? 0 : oldTable.length;
+            for (int i = ++curBasket; i < table.length + oldLength; i++) {
+                SimpleEntry head = i < table.length ? table[i] : oldTable[i - table.length];
+                if (head != null) {
+                    curBasket = i;
+                    return head;
                 }
             }
             throw new NoSuchElementException();
         }
     }
 
+    // Same walk as EntryIterator, reusable and without per-call allocation
+    private class EntryCursor implements Cursor {
+
+        private int curBasket = -1;
+        private SimpleEntry curEntry;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean advance() {
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (curEntry != null) {
+                curEntry = curEntry.next;
+            }
+            int oldLength = oldTable == null ? 0 : oldTable.length;
+            while (curEntry == null && curBasket + 1 < table.length + oldLength) {
+                int i = ++curBasket;
+                curEntry = i < table.length ? table[i] : oldTable[i - table.length];
+            }
+            return curEntry != null;
+        }
+
+        @Override
+        public Object key() {
+            return current().key;
+        }
+
+        @Override
+        public void reset() {
+            curBasket = -1;
+            curEntry = null;
+            expectedModCount = modCount;
+        }
+
+        @Override
+        public Object value() {
+            return current().value;
+        }
+
+        private SimpleEntry current() {
+            if (curEntry == null) {
+                throw new NoSuchElementException();
+            }
+            return curEntry;
+        }
+    }
+
+    // Splits the basket index range of the table followed by the old table of an unfinished resize.
+    // The unsplit spliterator knows its exact size, halves only estimate theirs
+    private class EntrySpliterator implements Spliterator<Entry> {
+
+        private final SimpleEntry[] tab;
+        private final SimpleEntry[] oldTab;
+        private int index;
+        private int fence;
+        private int est;
+        private boolean sized;
+        private SimpleEntry curEntry;
+        private final int expectedModCount;
+
+        private EntrySpliterator(SimpleEntry[] tab, SimpleEntry[] oldTab, int origin, int fence,
+                                 int est, boolean sized, int expectedModCount) {
+            this.tab = tab;
+            this.oldTab = oldTab;
+            this.index = origin;
+            this.fence = fence;
+            this.est = est;
+            this.sized = sized;
+            this.expectedModCount = expectedModCount;
+        }
+
+        @Override
+        public Spliterator<Entry> trySplit() {
+            int lo = index;
+            int mid = (lo + fence) >>> 1;
+            if (lo >= mid || curEntry != null) {
+                return null;
+            }
+            sized = false;
+            return new EntrySpliterator(tab, oldTab, lo, index = mid, est >>>= 1, false, expectedModCount);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Entry> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            while (curEntry != null || index < fence) {
+                if (curEntry == null) {
+                    curEntry = basket(index++);
+                } else {
+                    SimpleEntry toAccept = curEntry;
+                    curEntry = curEntry.next;
+                    if (est > 0) {
+                        est--;
+                    }
+                    action.accept(toAccept);
+                    if (expectedModCount != modCount) {
+                        throw new ConcurrentModificationException();
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Entry> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            SimpleEntry entry = curEntry;
+            curEntry = null;
+            for (;;) {
+                for (; entry != null; entry = entry.next) {
+                    action.accept(entry);
+                }
+                if (index >= fence) {
+                    break;
+                }
+                entry = basket(index++);
+            }
+            est = 0;
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return est;
+        }
+
+        @Override
+        public int characteristics() {
+            return (sized ? Spliterator.SIZED : 0) | Spliterator.DISTINCT;
+        }
+
+        private SimpleEntry basket(int i) {
+            return i < tab.length ? tab[i] : oldTab[i - tab.length];
+        }
+    }
+
     private static final int DEFAULT_INITIAL_CAPACITY = 16;
     private static final float DEFAULT_LOAD_FACTOR = 0.75f;
     private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int TREEIFY_THRESHOLD = 8;
+    private static final int UNTREEIFY_THRESHOLD = 6;
+    private static final int MIN_TREEIFY_CAPACITY = 64;
+    private static final int RESIZE_STEP = 4;
+    private static final int RESIZE_SCAN_LIMIT = 64;
+    private static final boolean BLACK = true;
+    private static final boolean RED = false;
 
     private SimpleEntry[] table;
+    private SimpleEntry[] oldTable;
+    private int transferIndex;
+    // Null unless enableStats() was called, so disabled instrumentation costs one field read
+    private MyHashMapStats stats;
+    private final boolean incrementalResize;
     private float loadFactor;
     private int size;
     private int modCount;
@@ -104,6 +288,7 @@ public class MyHashMap implements MyMap {
     public MyHashMap() {
         this.loadFactor = DEFAULT_LOAD_FACTOR;
         this.table = new SimpleEntry[DEFAULT_INITIAL_CAPACITY];
+        this.incrementalResize = false;
     }
 
     public MyHashMap(int initialCapacity) {
@@ -111,6 +296,11 @@ public class MyHashMap implements MyMap {
     }
 
     public MyHashMap(int initialCapacity, float loadFactor) {
+        this(initialCapacity, loadFactor, false);
+    }
+
+    // With incrementalResize the old table is drained a few baskets per insert or remove
+    public MyHashMap(int initialCapacity, float loadFactor, boolean incrementalResize) {
         if (initialCapacity < 0) {
             throw new IllegalArgumentException("Illegal initial capacity: "
                     + initialCapacity);
@@ -125,27 +315,21 @@ public class MyHashMap implements MyMap {
         }
         table = new SimpleEntry[initialCapacity];
         this.loadFactor = loadFactor;
+        this.incrementalResize = incrementalResize;
     }
 
     @Override
     public void clear() {
         this.table = new SimpleEntry[table.length];
+        this.oldTable = null;
+        this.transferIndex = 0;
         size = 0;
         modCount++;
     }
 
     @Override
     public boolean containsKey(Object key) {
-        int hashCode = Objects.hashCode(key);
-        int tableIndex = hashCode & table.length - 1;
-        SimpleEntry curEntry = table[tableIndex];
-        while (curEntry != null) {
-            if (curEntry.key.equals(key)) {
-                return true;
-            }
-            curEntry = curEntry.next;
-        }
-        return false;
+        return getEntry(hash(key), key) != null;
     }
 
     @Override
@@ -159,23 +343,111 @@ public class MyHashMap implements MyMap {
         return false;
     }
 
+    @Override
+    public Object compute(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        int hashCode = hash(key);
+        SimpleEntry entry = findForUpdate(hashCode, key);
+        int expectedModCount = modCount;
+        Object newValue = remappingFunction.apply(key, entry == null ? null : entry.value);
+        if (expectedModCount != modCount) {
+            throw new ConcurrentModificationException();
+        }
+        store(entry, hashCode, key, newValue);
+        return newValue;
+    }
+
+    @Override
+    public Object computeIfAbsent(Object key, Function<Object, Object> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        int hashCode = hash(key);
+        SimpleEntry entry = findForUpdate(hashCode, key);
+        if (entry != null && entry.value != null) {
+            return entry.value;
+        }
+        int expectedModCount = modCount;
+        Object value = mappingFunction.apply(key);
+        if (expectedModCount != modCount) {
+            throw new ConcurrentModificationException();
+        }
+        if (value != null) {
+            store(entry, hashCode, key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Object computeIfPresent(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        int hashCode = hash(key);
+        SimpleEntry entry = findForUpdate(hashCode, key);
+        if (entry == null || entry.value == null) {
+            return null;
+        }
+        int expectedModCount = modCount;
+        Object newValue = remappingFunction.apply(key, entry.value);
+        if (expectedModCount != modCount) {
+            throw new ConcurrentModificationException();
+        }
+        store(entry, hashCode, key, newValue);
+        return newValue;
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new EntryCursor();
+    }
+
+    public void disableStats() {
+        if (stats != null) {
+            stats.close();
+            stats = null;
+        }
+    }
+
+    // Starts counting resizes and, when the jfr/ sources are compiled in, publishes the statistics
+    // as JFR events; register the returned object to expose it over JMX
+    public MyHashMapStats enableStats() {
+        if (stats == null) {
+            stats = new MyHashMapStats(this);
+        }
+        return stats;
+    }
+
     @Override
     public Iterator entryIterator() {
         return new EntryIterator();
     }
 
+    @Override
+    public void forEach(BiConsumer<Object, Object> action) {
+        int expectedModCount = modCount;
+        forEach(table, action);
+        if (oldTable != null) {
+            forEach(oldTable, action);
+        }
+        if (expectedModCount != modCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
     @Override
     public Object get(Object key) {
-        int hashCode = Objects.hashCode(key);
-        int tableIndex = hashCode & table.length - 1;
-        SimpleEntry curEntry = table[tableIndex];
-        while (curEntry != null) {
-            if (curEntry.key.equals(key)) {
-                return curEntry.value;
-            }
-            curEntry = curEntry.next;
+        SimpleEntry entry = getEntry(hash(key), key);
+        return entry == null ? null : entry.value;
+    }
+
+    // Hashes the whole batch first, then looks the keys up basket by basket in table order, so the
+    // reads move forward through the table instead of jumping and repeated keys come in a row
+    @Override
+    public void getAll(Object[] keys, Object[] values) {
+        BulkTasks.checkBatch(keys, values, null);
+        int[] hashes = new int[keys.length];
+        for (long position : tableOrder(keys, hashes)) {
+            int i = (int) position;
+            SimpleEntry entry = getEntry(hashes[i], keys[i]);
+            values[i] = entry == null ? null : entry.value;
         }
-        return null;
     }
 
     @Override
@@ -184,41 +456,97 @@ public class MyHashMap implements MyMap {
     }
 
     @Override
-    public Object put(Object key, Object value) {
-        int hashCode = Objects.hashCode(key);
-        return put(hashCode, key, value);
+    public Object merge(Object key, Object value, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        int hashCode = hash(key);
+        SimpleEntry entry = findForUpdate(hashCode, key);
+        Object newValue = value;
+        if (entry != null && entry.value != null) {
+            int expectedModCount = modCount;
+            newValue = remappingFunction.apply(entry.value, value);
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+        store(entry, hashCode, key, newValue);
+        return newValue;
     }
 
     @Override
-    public Object remove(Object key) {
-        int hashCode = Objects.hashCode(key);
-        int tableIndex = hashCode & table.length - 1;
-        Object toReturn = null;
-        SimpleEntry curEntry = table[tableIndex];
-        if (curEntry == null) {
-            return null;
+    public Object put(Object key, Object value) {
+        return put(hash(key), key, value);
+    }
+
+    // Grows the table once for all incoming keys, so the inserts below never trigger a resize
+    public void putAll(MyMap map) {
+        int count = map.size();
+        if (count == 0) {
+            return;
         }
-        if (curEntry.key.equals(key)) {
-            toReturn = curEntry.value;
-            table[tableIndex] = curEntry.next;
+        presize((long) size + count);
+        Iterator iter = map.entryIterator();
+        if (map instanceof MyHashMap) {
+            while (iter.hasNext()) {
+                SimpleEntry curEntry = (SimpleEntry) iter.next();
+                put(curEntry.hashCode, curEntry.key, curEntry.value);
+            }
         } else {
-            SimpleEntry prevEntry = curEntry;
-            curEntry = curEntry.next;
-            while (curEntry != null) {
-                if (curEntry.key.equals(key)) {
-                    toReturn = curEntry.value;
-                    prevEntry.next = curEntry.next;
-                    break;
-                }
-                prevEntry = curEntry;
-                curEntry = curEntry.next;
+            while (iter.hasNext()) {
+                Entry curEntry = (Entry) iter.next();
+                put(curEntry.getKey(), curEntry.getValue());
             }
         }
-        if (toReturn != null) {
-            size--;
-            modCount++;
+    }
+
+    // Presizes once for the batch and writes in table order like getAll; equal keys stay in batch
+    // order, so the last one wins
+    @Override
+    public void putAll(Object[] keys, Object[] values, Object[] previous) {
+        BulkTasks.checkBatch(keys, values, previous);
+        presize((long) size + keys.length);
+        int[] hashes = new int[keys.length];
+        for (long position : tableOrder(keys, hashes)) {
+            int i = (int) position;
+            Object toReturn = put(hashes[i], keys[i], values[i]);
+            if (previous != null) {
+                previous[i] = toReturn;
+            }
+        }
+    }
+
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        int hashCode = hash(key);
+        SimpleEntry entry = findForUpdate(hashCode, key);
+        if (entry != null && entry.value != null) {
+            return entry.value;
+        }
+        // Unlike store(), a null value is put as well and never removes the mapping
+        if (entry != null) {
+            entry.value = value;
+        } else {
+            insert(hashCode, key, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return remove(hash(key), key);
+    }
+
+    @Override
+    public void removeAll(Object[] keys, Object[] previous) {
+        BulkTasks.checkBatch(keys, null, previous);
+        int[] hashes = new int[keys.length];
+        for (long position : tableOrder(keys, hashes)) {
+            int i = (int) position;
+            Object toReturn = remove(hashes[i], keys[i]);
+            if (previous != null) {
+                previous[i] = toReturn;
+            }
         }
-        return toReturn;
     }
 
     @Override
@@ -226,6 +554,12 @@ public class MyHashMap implements MyMap {
         return size;
     }
 
+    @Override
+    public Spliterator<Entry> spliterator() {
+        int oldLength = oldTable == null ? 0 : oldTable.length;
+        return new EntrySpliterator(table, oldTable, 0, table.length + oldLength, size, true, modCount);
+    }
+
 /*    public void showMap() {
         StringBuilder sb = new StringBuilder("{}");
         StringBuilder sub;
@@ -242,57 +576,785 @@ public class MyHashMap implements MyMap {
         System.out.println(sb.toString());
     }*/
 
+    // Keys and values must be String, byte[], Integer, Long or null; reopen with MappedHashMap.open
+    public void writeSnapshot(Path path) throws IOException {
+        MappedSnapshot.writeHashed(path, this);
+    }
+
     @Override
     public String toString() {
-        StringBuilder toReturn = new StringBuilder("{}");
-        Iterator iter = entryIterator();
-        while (iter.hasNext()) {
-            toReturn.insert(toReturn.length() - 1, ", " + iter.next());
-        }
-        if (toReturn.length() > 2) {
-            toReturn.delete(1, 3);
+        StringBuilder toReturn = new StringBuilder();
+        try {
+            appendTo(toReturn);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new UncheckedIOException(e);
         }
         return toReturn.toString();
     }
 
+    private static void forEach(SimpleEntry[] tab, BiConsumer<Object, Object> action) {
+        for (SimpleEntry head : tab) {
+            for (SimpleEntry curEntry = head; curEntry != null; curEntry = curEntry.next) {
+                action.accept(curEntry.key, curEntry.value);
+            }
+        }
+    }
+
+    // Fills in the hashes and returns the batch positions sorted by table index, which sits above
+    // the position in each long
+    private long[] tableOrder(Object[] keys, int[] hashes) {
+        long[] toReturn = new long[keys.length];
+        int mask = table.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            hashes[i] = hash(keys[i]);
+            toReturn[i] = (long) (hashes[i] & mask) << 32 | i;
+        }
+        Arrays.sort(toReturn);
+        return toReturn;
+    }
+
+    private SimpleEntry getEntry(int hashCode, Object key) {
+        SimpleEntry curEntry = null;
+        if (oldTable != null) {
+            // A basket still present in the old table has not been moved yet
+            curEntry = oldTable[hashCode & oldTable.length - 1];
+        }
+        if (curEntry == null) {
+            curEntry = table[hashCode & table.length - 1];
+        }
+        if (curEntry instanceof TreeEntry) {
+            return findTreeEntry((TreeEntry) curEntry, hashCode, key);
+        }
+        while (curEntry != null) {
+            if (curEntry.hashCode == hashCode && Objects.equals(curEntry.key, key)) {
+                return curEntry;
+            }
+            curEntry = curEntry.next;
+        }
+        return null;
+    }
+
     private Object put(int hashCode, Object key, Object value) {
+        if (oldTable != null) {
+            SimpleEntry existing = getEntry(hashCode, key);
+            if (existing != null) {
+                Object toReturn = existing.value;
+                existing.value = value;
+                return toReturn;
+            }
+            migrateBasket(hashCode);
+            advanceResize();
+        }
         int tableIndex = hashCode & table.length - 1;
-        SimpleEntry toAdd = new SimpleEntry(hashCode, key, value);
         SimpleEntry curEntry = table[tableIndex];
-        while (curEntry != null) {
-            if (curEntry.key.equals(key)) {
-                Object toReturn = curEntry.value;
-                curEntry.value = value;
+        boolean treeify = false;
+        if (curEntry instanceof TreeEntry) {
+            TreeEntry existing = putTreeEntry(tableIndex, hashCode, key, value);
+            if (existing != null) {
+                Object toReturn = existing.value;
+                existing.value = value;
                 return toReturn;
             }
-            if (curEntry.next == null) {
-                break;
-            }
-            curEntry = curEntry.next;
-        }
-        if (curEntry == null) {
-            table[tableIndex] = toAdd;
         } else {
-            curEntry.next = toAdd;
+            int chainLength = 1;
+            while (curEntry != null) {
+                if (curEntry.hashCode == hashCode && Objects.equals(curEntry.key, key)) {
+                    Object toReturn = curEntry.value;
+                    curEntry.value = value;
+                    return toReturn;
+                }
+                chainLength++;
+                if (curEntry.next == null) {
+                    break;
+                }
+                curEntry = curEntry.next;
+            }
+            SimpleEntry toAdd = new SimpleEntry(hashCode, key, value);
+            if (curEntry == null) {
+                table[tableIndex] = toAdd;
+            } else {
+                curEntry.next = toAdd;
+            }
+            treeify = chainLength >= TREEIFY_THRESHOLD;
         }
+        afterInsert(tableIndex, treeify);
+        return null;
+    }
+
+    private void afterInsert(int tableIndex, boolean treeify) {
         if (++size > table.length * loadFactor && table.length < MAXIMUM_CAPACITY) {
             resize();
+        } else if (treeify) {
+            treeifyBin(tableIndex);
         }
         modCount++;
+    }
+
+    // The compute family walks the basket once: during an incremental resize the key's old basket
+    // is moved over first, so the entry returned here, or the slot for a new one, is in table
+    private SimpleEntry findForUpdate(int hashCode, Object key) {
+        if (oldTable != null) {
+            migrateBasket(hashCode);
+            advanceResize();
+        }
+        return getEntry(hashCode, key);
+    }
+
+    // Applies a computed value to the entry found by findForUpdate; null removes it and a missing
+    // entry goes to the head of a plain basket without another search
+    private void store(SimpleEntry entry, int hashCode, Object key, Object value) {
+        if (entry != null) {
+            if (value == null) {
+                remove(hashCode, key);
+            } else {
+                entry.value = value;
+            }
+            return;
+        }
+        if (value != null) {
+            insert(hashCode, key, value);
+        }
+    }
+
+    // The key is known to be absent
+    private void insert(int hashCode, Object key, Object value) {
+        int tableIndex = hashCode & table.length - 1;
+        SimpleEntry head = table[tableIndex];
+        boolean treeify = false;
+        if (head instanceof TreeEntry) {
+            putTreeEntry(tableIndex, hashCode, key, value);
+        } else {
+            SimpleEntry toAdd = new SimpleEntry(hashCode, key, value);
+            toAdd.next = head;
+            table[tableIndex] = toAdd;
+            int chainLength = 0;
+            for (SimpleEntry curEntry = toAdd; curEntry != null && chainLength < TREEIFY_THRESHOLD;
+                 curEntry = curEntry.next) {
+                chainLength++;
+            }
+            treeify = chainLength >= TREEIFY_THRESHOLD;
+        }
+        afterInsert(tableIndex, treeify);
+    }
+
+    private Object remove(int hashCode, Object key) {
+        if (oldTable != null) {
+            if (getEntry(hashCode, key) == null) {
+                return null;
+            }
+            migrateBasket(hashCode);
+            advanceResize();
+        }
+        int tableIndex = hashCode & table.length - 1;
+        SimpleEntry curEntry = table[tableIndex];
+        if (curEntry == null) {
+            return null;
+        }
+        if (curEntry instanceof TreeEntry) {
+            TreeEntry toRemove = findTreeEntry((TreeEntry) curEntry, hashCode, key);
+            if (toRemove == null) {
+                return null;
+            }
+            removeTreeEntry(tableIndex, toRemove);
+            size--;
+            modCount++;
+            return toRemove.value;
+        }
+        SimpleEntry prevEntry = null;
+        while (curEntry != null) {
+            if (curEntry.hashCode == hashCode && Objects.equals(curEntry.key, key)) {
+                if (prevEntry == null) {
+                    table[tableIndex] = curEntry.next;
+                } else {
+                    prevEntry.next = curEntry.next;
+                }
+                size--;
+                modCount++;
+                return curEntry.value;
+            }
+            prevEntry = curEntry;
+            curEntry = curEntry.next;
+        }
         return null;
     }
 
 
     private void resize() {
-        int newCap = loadFactor == DEFAULT_LOAD_FACTOR
-                ? this.table.length << 1 : tableSizeFor((int) Math.ceil(size / loadFactor));
-        MyHashMap temp = new MyHashMap(newCap);
-        Iterator iter = entryIterator();
-        while (iter.hasNext()) {
-            SimpleEntry curEntry = (SimpleEntry) iter.next();
-            temp.put(curEntry.hashCode, curEntry.key, curEntry.value);
+        resize(loadFactor == DEFAULT_LOAD_FACTOR
+                ? this.table.length << 1 : tableSizeFor((int) Math.ceil(size / loadFactor)));
+    }
+
+    private void resize(int newCap) {
+        MyHashMapStats curStats = this.stats;
+        if (curStats != null) {
+            curStats.beginResize();
+        }
+        if (oldTable != null) {
+            finishResize();
+        }
+        SimpleEntry[] oldTab = this.table;
+        this.table = new SimpleEntry[newCap];
+        if (incrementalResize) {
+            oldTable = oldTab;
+            transferIndex = 0;
+        } else {
+            transferAll(oldTab);
+        }
+        if (curStats != null) {
+            curStats.endResize(oldTab.length, newCap, incrementalResize);
+        }
+    }
+
+    int capacity() {
+        return table.length;
+    }
+
+    MyHashMapStats stats() {
+        return stats;
+    }
+
+    // Fills the histogram of basket chain lengths and returns the longest. May run on a monitoring
+    // thread while the map is written, so chain walks are capped instead of trusting the links
+    int chainLengths(int[] histogram) {
+        int maxLength = 0;
+        int limit = size + 1;
+        SimpleEntry[] tab = table;
+        SimpleEntry[] oldTab = oldTable;
+        int oldLength = oldTab == null ? 0 : oldTab.length;
+        for (int i = 0; i < tab.length + oldLength; i++) {
+            SimpleEntry head = i < tab.length ? tab[i] : oldTab[i - tab.length];
+            if (head == null && i >= tab.length) {
+                continue;
+            }
+            int length = 0;
+            for (SimpleEntry curEntry = head; curEntry != null && length < limit; curEntry = curEntry.next) {
+                length++;
+            }
+            histogram[Math.min(length, histogram.length - 1)]++;
+            maxLength = Math.max(maxLength, length);
+        }
+        return maxLength;
+    }
+
+    private void presize(long expectedSize) {
+        long needed = (long) Math.ceil(expectedSize / loadFactor);
+        int newCap = needed >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : tableSizeFor((int) needed);
+        if (newCap <= table.length) {
+            return;
+        }
+        MyHashMapStats curStats = this.stats;
+        if (curStats != null) {
+            curStats.beginResize();
+        }
+        if (oldTable != null) {
+            finishResize();
+        }
+        SimpleEntry[] oldTab = this.table;
+        this.table = new SimpleEntry[newCap];
+        transferAll(oldTab);
+        if (curStats != null) {
+            curStats.endResize(oldTab.length, newCap, false);
+        }
+    }
+
+    private void transferAll(SimpleEntry[] oldTab) {
+        for (int i = 0; i < oldTab.length; i++) {
+            if (oldTab[i] != null) {
+                transferBasket(oldTab[i], i, oldTab.length);
+            }
+        }
+    }
+
+    private void advanceResize() {
+        int migrated = 0;
+        for (int scanned = 0; scanned < RESIZE_SCAN_LIMIT && migrated < RESIZE_STEP
+                && transferIndex < oldTable.length; scanned++, transferIndex++) {
+            SimpleEntry head = oldTable[transferIndex];
+            if (head != null) {
+                oldTable[transferIndex] = null;
+                transferBasket(head, transferIndex, oldTable.length);
+                migrated++;
+            }
+        }
+        if (transferIndex == oldTable.length) {
+            oldTable = null;
+        }
+    }
+
+    private void finishResize() {
+        for (; transferIndex < oldTable.length; transferIndex++) {
+            SimpleEntry head = oldTable[transferIndex];
+            if (head != null) {
+                oldTable[transferIndex] = null;
+                transferBasket(head, transferIndex, oldTable.length);
+            }
+        }
+        oldTable = null;
+    }
+
+    private void migrateBasket(int hashCode) {
+        int oldIndex = hashCode & oldTable.length - 1;
+        SimpleEntry head = oldTable[oldIndex];
+        if (head != null) {
+            oldTable[oldIndex] = null;
+            transferBasket(head, oldIndex, oldTable.length);
+        }
+    }
+
+    // Relinks the existing entries of one old basket into the current table without copying them.
+    // Every target basket is empty, as keys only reach it after their old basket has been moved.
+    private void transferBasket(SimpleEntry head, int oldIndex, int oldCap) {
+        SimpleEntry next;
+        for (SimpleEntry curEntry = head; curEntry != null; curEntry = next) {
+            next = curEntry.next;
+            int tableIndex = curEntry.hashCode & table.length - 1;
+            curEntry.next = table[tableIndex];
+            table[tableIndex] = curEntry;
+        }
+        if (!(head instanceof TreeEntry)) {
+            return;
+        }
+        for (int tableIndex = oldIndex; tableIndex < table.length; tableIndex += oldCap) {
+            SimpleEntry first = table[tableIndex];
+            int binSize = 0;
+            TreeEntry prev = null;
+            for (SimpleEntry curEntry = first; curEntry != null; curEntry = curEntry.next) {
+                ((TreeEntry) curEntry).prev = prev;
+                prev = (TreeEntry) curEntry;
+                binSize++;
+            }
+            if (binSize > UNTREEIFY_THRESHOLD) {
+                buildTree(tableIndex, (TreeEntry) first);
+            } else if (binSize > 0) {
+                untreeifyBin(tableIndex);
+            }
+        }
+    }
+
+    private void treeifyBin(int tableIndex) {
+        if (table.length < MIN_TREEIFY_CAPACITY) {
+            // Small tables double instead, which usually splits the chain; the load factor
+            // formula of resize() could keep or even shrink the table
+            if (table.length < MAXIMUM_CAPACITY) {
+                resize(table.length << 1);
+            }
+            return;
+        }
+        TreeEntry head = null;
+        TreeEntry tail = null;
+        for (SimpleEntry curEntry = table[tableIndex]; curEntry != null; curEntry = curEntry.next) {
+            TreeEntry toAdd = new TreeEntry(curEntry.hashCode, curEntry.key, curEntry.value);
+            if (tail == null) {
+                head = toAdd;
+            } else {
+                tail.next = toAdd;
+                toAdd.prev = tail;
+            }
+            tail = toAdd;
+        }
+        table[tableIndex] = head;
+        buildTree(tableIndex, head);
+    }
+
+    private void untreeifyBin(int tableIndex) {
+        SimpleEntry head = null;
+        SimpleEntry tail = null;
+        for (SimpleEntry curEntry = table[tableIndex]; curEntry != null; curEntry = curEntry.next) {
+            SimpleEntry toAdd = new SimpleEntry(curEntry.hashCode, curEntry.key, curEntry.value);
+            if (tail == null) {
+                head = toAdd;
+            } else {
+                tail.next = toAdd;
+            }
+            tail = toAdd;
+        }
+        table[tableIndex] = head;
+    }
+
+    // Links the TreeEntry list starting at head into a red-black tree and puts its root first
+    private void buildTree(int tableIndex, TreeEntry head) {
+        TreeEntry root = null;
+        for (TreeEntry toAdd = head; toAdd != null; toAdd = (TreeEntry) toAdd.next) {
+            toAdd.left = toAdd.right = toAdd.parent = null;
+            if (root == null) {
+                root = toAdd;
+                root.color = BLACK;
+                continue;
+            }
+            TreeEntry curEntry = root;
+            while (true) {
+                int dir = compareForTree(toAdd.hashCode, toAdd.key, curEntry);
+                if (dir == 0) {
+                    dir = tieBreakOrder(toAdd.key, curEntry.key);
+                }
+                TreeEntry next = dir < 0 ? curEntry.left : curEntry.right;
+                if (next == null) {
+                    toAdd.parent = curEntry;
+                    if (dir < 0) {
+                        curEntry.left = toAdd;
+                    } else {
+                        curEntry.right = toAdd;
+                    }
+                    root = fixAfterInsert(root, toAdd);
+                    break;
+                }
+                curEntry = next;
+            }
+        }
+        moveRootToFront(tableIndex, root);
+    }
+
+    // Returns the existing entry for key, or null after inserting a new one into the bin
+    private TreeEntry putTreeEntry(int tableIndex, int hashCode, Object key, Object value) {
+        TreeEntry root = (TreeEntry) table[tableIndex];
+        TreeEntry curEntry = root;
+        boolean searched = false;
+        while (true) {
+            int dir;
+            if (curEntry.hashCode == hashCode && Objects.equals(curEntry.key, key)) {
+                return curEntry;
+            }
+            if ((dir = compareForTree(hashCode, key, curEntry)) == 0) {
+                // Equal hashes and no usable ordering: the key may sit in either subtree
+                if (!searched) {
+                    searched = true;
+                    TreeEntry found;
+                    if ((found = findTreeEntry(curEntry.left, hashCode, key)) != null ||
+                            (found = findTreeEntry(curEntry.right, hashCode, key)) != null) {
+                        return found;
+                    }
+                }
+                dir = tieBreakOrder(key, curEntry.key);
+            }
+            TreeEntry next = dir < 0 ? curEntry.left : curEntry.right;
+            if (next == null) {
+                TreeEntry toAdd = new TreeEntry(hashCode, key, value);
+                toAdd.parent = curEntry;
+                if (dir < 0) {
+                    curEntry.left = toAdd;
+                } else {
+                    curEntry.right = toAdd;
+                }
+                toAdd.prev = root;
+                toAdd.next = root.next;
+                if (root.next != null) {
+                    ((TreeEntry) root.next).prev = toAdd;
+                }
+                root.next = toAdd;
+                moveRootToFront(tableIndex, fixAfterInsert(root, toAdd));
+                return null;
+            }
+            curEntry = next;
+        }
+    }
+
+    private void removeTreeEntry(int tableIndex, TreeEntry toRemove) {
+        TreeEntry prev = toRemove.prev;
+        TreeEntry next = (TreeEntry) toRemove.next;
+        if (prev == null) {
+            table[tableIndex] = next;
+        } else {
+            prev.next = next;
+        }
+        if (next != null) {
+            next.prev = prev;
+        }
+        TreeEntry root = deleteFromTree(findRoot(toRemove), toRemove);
+        if (root == null) {
+            table[tableIndex] = null;
+            return;
+        }
+        moveRootToFront(tableIndex, root);
+        int binSize = 0;
+        for (SimpleEntry curEntry = root; curEntry != null && binSize <= UNTREEIFY_THRESHOLD;
+             curEntry = curEntry.next) {
+            binSize++;
+        }
+        if (binSize <= UNTREEIFY_THRESHOLD) {
+            untreeifyBin(tableIndex);
+        }
+    }
+
+    private void moveRootToFront(int tableIndex, TreeEntry root) {
+        TreeEntry first = (TreeEntry) table[tableIndex];
+        if (first == root) {
+            return;
+        }
+        TreeEntry prev = root.prev;
+        TreeEntry next = (TreeEntry) root.next;
+        prev.next = next;
+        if (next != null) {
+            next.prev = prev;
+        }
+        if (first != null) {
+            first.prev = root;
+        }
+        root.next = first;
+        root.prev = null;
+        table[tableIndex] = root;
+    }
+
+    private static TreeEntry findRoot(TreeEntry entry) {
+        while (entry.parent != null) {
+            entry = entry.parent;
+        }
+        return entry;
+    }
+
+    private static TreeEntry findTreeEntry(TreeEntry curEntry, int hashCode, Object key) {
+        while (curEntry != null) {
+            if (curEntry.hashCode == hashCode && Objects.equals(curEntry.key, key)) {
+                return curEntry;
+            }
+            int dir = compareForTree(hashCode, key, curEntry);
+            if (dir < 0) {
+                curEntry = curEntry.left;
+            } else if (dir > 0) {
+                curEntry = curEntry.right;
+            } else if (curEntry.left == null) {
+                curEntry = curEntry.right;
+            } else if (curEntry.right == null) {
+                curEntry = curEntry.left;
+            } else {
+                TreeEntry found = findTreeEntry(curEntry.right, hashCode, key);
+                if (found != null) {
+                    return found;
+                }
+                curEntry = curEntry.left;
+            }
+        }
+        return null;
+    }
+
+    // Orders by hash, then by natural order for mutually comparable keys; 0 means undecided
+    @SuppressWarnings("unchecked")
+    private static int compareForTree(int hashCode, Object key, TreeEntry entry) {
+        if (hashCode != entry.hashCode) {
+            return hashCode < entry.hashCode ? -1 : 1;
+        }
+        if (key instanceof Comparable && entry.key != null && key.getClass() == entry.key.getClass()) {
+            return ((Comparable) key).compareTo(entry.key);
         }
-        this.table = temp.table;
+        return 0;
+    }
+
+    private static int tieBreakOrder(Object key1, Object key2) {
+        int toReturn = 0;
+        if (key1 != null && key2 != null) {
+            toReturn = key1.getClass().getName().compareTo(key2.getClass().getName());
+        }
+        if (toReturn == 0) {
+            toReturn = System.identityHashCode(key1) <= System.identityHashCode(key2) ? -1 : 1;
+        }
+        return toReturn;
+    }
+
+    private static boolean colorOf(TreeEntry entry) {
+        return entry == null ? BLACK : entry.color;
+    }
+
+    private static TreeEntry fixAfterInsert(TreeEntry root, TreeEntry toCheck) {
+        toCheck.color = RED;
+        while (toCheck != root && toCheck.parent.color == RED) {
+            TreeEntry parent = toCheck.parent;
+            TreeEntry grand = parent.parent;
+            if (parent == grand.left) {
+                TreeEntry uncle = grand.right;
+                if (colorOf(uncle) == RED) {
+                    parent.color = BLACK;
+                    uncle.color = BLACK;
+                    grand.color = RED;
+                    toCheck = grand;
+                    continue;
+                }
+                if (toCheck == parent.right) {
+                    root = roL(root, parent);
+                    toCheck = parent;
+                    parent = toCheck.parent;
+                }
+                parent.color = BLACK;
+                grand.color = RED;
+                root = roR(root, grand);
+            } else {
+                TreeEntry uncle = grand.left;
+                if (colorOf(uncle) == RED) {
+                    parent.color = BLACK;
+                    uncle.color = BLACK;
+                    grand.color = RED;
+                    toCheck = grand;
+                    continue;
+                }
+                if (toCheck == parent.left) {
+                    root = roR(root, parent);
+                    toCheck = parent;
+                    parent = toCheck.parent;
+                }
+                parent.color = BLACK;
+                grand.color = RED;
+                root = roL(root, grand);
+            }
+        }
+        root.color = BLACK;
+        return root;
+    }
+
+    private static TreeEntry deleteFromTree(TreeEntry root, TreeEntry toRemove) {
+        TreeEntry subst;
+        TreeEntry substParent;
+        boolean removedColor = toRemove.color;
+        if (toRemove.left == null) {
+            subst = toRemove.right;
+            substParent = toRemove.parent;
+            root = transplant(root, toRemove, subst);
+        } else if (toRemove.right == null) {
+            subst = toRemove.left;
+            substParent = toRemove.parent;
+            root = transplant(root, toRemove, subst);
+        } else {
+            // Successor takes the place of toRemove, so entries keep their identity
+            TreeEntry successor = toRemove.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            removedColor = successor.color;
+            subst = successor.right;
+            if (successor.parent == toRemove) {
+                substParent = successor;
+            } else {
+                substParent = successor.parent;
+                root = transplant(root, successor, successor.right);
+                successor.right = toRemove.right;
+                successor.right.parent = successor;
+            }
+            root = transplant(root, toRemove, successor);
+            successor.left = toRemove.left;
+            successor.left.parent = successor;
+            successor.color = toRemove.color;
+        }
+        toRemove.parent = toRemove.left = toRemove.right = null;
+        if (removedColor == BLACK) {
+            root = fixAfterDelete(root, subst, substParent);
+        }
+        return root;
+    }
+
+    private static TreeEntry fixAfterDelete(TreeEntry root, TreeEntry toCheck, TreeEntry parent) {
+        while (toCheck != root && colorOf(toCheck) == BLACK) {
+            if (toCheck == parent.left) {
+                TreeEntry sibl = parent.right;
+                if (colorOf(sibl) == RED) {
+                    sibl.color = BLACK;
+                    parent.color = RED;
+                    root = roL(root, parent);
+                    sibl = parent.right;
+                }
+                if (colorOf(sibl.left) == BLACK && colorOf(sibl.right) == BLACK) {
+                    sibl.color = RED;
+                    toCheck = parent;
+                    parent = toCheck.parent;
+                } else {
+                    if (colorOf(sibl.right) == BLACK) {
+                        sibl.left.color = BLACK;
+                        sibl.color = RED;
+                        root = roR(root, sibl);
+                        sibl = parent.right;
+                    }
+                    sibl.color = parent.color;
+                    parent.color = BLACK;
+                    sibl.right.color = BLACK;
+                    root = roL(root, parent);
+                    toCheck = root;
+                }
+            } else {
+                TreeEntry sibl = parent.left;
+                if (colorOf(sibl) == RED) {
+                    sibl.color = BLACK;
+                    parent.color = RED;
+                    root = roR(root, parent);
+                    sibl = parent.left;
+                }
+                if (colorOf(sibl.left) == BLACK && colorOf(sibl.right) == BLACK) {
+                    sibl.color = RED;
+                    toCheck = parent;
+                    parent = toCheck.parent;
+                } else {
+                    if (colorOf(sibl.left) == BLACK) {
+                        sibl.right.color = BLACK;
+                        sibl.color = RED;
+                        root = roL(root, sibl);
+                        sibl = parent.left;
+                    }
+                    sibl.color = parent.color;
+                    parent.color = BLACK;
+                    sibl.left.color = BLACK;
+                    root = roR(root, parent);
+                    toCheck = root;
+                }
+            }
+        }
+        if (toCheck != null) {
+            toCheck.color = BLACK;
+        }
+        return root;
+    }
+
+    private static TreeEntry transplant(TreeEntry root, TreeEntry target, TreeEntry subst) {
+        if (target.parent == null) {
+            root = subst;
+        } else if (target == target.parent.left) {
+            target.parent.left = subst;
+        } else {
+            target.parent.right = subst;
+        }
+        if (subst != null) {
+            subst.parent = target.parent;
+        }
+        return root;
+    }
+
+    private static TreeEntry roL(TreeEntry root, TreeEntry top) {
+        TreeEntry right = top.right;
+        top.right = right.left;
+        if (right.left != null) {
+            right.left.parent = top;
+        }
+        right.parent = top.parent;
+        if (top.parent == null) {
+            root = right;
+        } else if (top == top.parent.left) {
+            top.parent.left = right;
+        } else {
+            top.parent.right = right;
+        }
+        right.left = top;
+        top.parent = right;
+        return root;
+    }
+
+    private static TreeEntry roR(TreeEntry root, TreeEntry top) {
+        TreeEntry left = top.left;
+        top.left = left.right;
+        if (left.right != null) {
+            left.right.parent = top;
+        }
+        left.parent = top.parent;
+        if (top.parent == null) {
+            root = left;
+        } else if (top == top.parent.right) {
+            top.parent.right = left;
+        } else {
+            top.parent.left = left;
+        }
+        left.right = top;
+        top.parent = left;
+        return root;
+    }
+
+    // Spreads high bits downwards, since the table index only uses the low bits
+    static int hash(Object key) {
+        int hashCode = Objects.hashCode(key);
+        return hashCode ^ hashCode >>> 16;
     }
 
     private static int tableSizeFor(int cap) {
@@ -0,0 +1,234 @@
+package EPAM2015_lab9;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+// Offline check of how a key set spreads over MyHashMap baskets. Probe counts are key comparisons
+// in a linear chain; compared with the uniform hashing ideal they show whether a hashCode() wastes
+// buckets, and the advisor picks the smallest table that still performs close to the ideal
+public final class MyHashMapAnalyzer {
+
+    public static final class Report {
+
+        private final int keyCount;
+        private final int distinctHashCodes;
+        private final int capacity;
+        private final int[] histogram;
+        private final int longestChain;
+        private final int treeifiedBaskets;
+        private final double observedSuccessfulProbes;
+        private final double observedUnsuccessfulProbes;
+        private final int recommendedInitialCapacity;
+        private final float recommendedLoadFactor;
+
+        private Report(int keyCount, int distinctHashCodes, int capacity, int[] histogram, int longestChain,
+                       int treeifiedBaskets, double observedSuccessfulProbes, double observedUnsuccessfulProbes,
+                       int recommendedInitialCapacity, float recommendedLoadFactor) {
+            this.keyCount = keyCount;
+            this.distinctHashCodes = distinctHashCodes;
+            this.capacity = capacity;
+            this.histogram = histogram;
+            this.longestChain = longestChain;
+            this.treeifiedBaskets = treeifiedBaskets;
+            this.observedSuccessfulProbes = observedSuccessfulProbes;
+            this.observedUnsuccessfulProbes = observedUnsuccessfulProbes;
+            this.recommendedInitialCapacity = recommendedInitialCapacity;
+            this.recommendedLoadFactor = recommendedLoadFactor;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public int getDistinctHashCodes() {
+            return distinctHashCodes;
+        }
+
+        // With uniform hashing a hit compares 1 + load / 2 keys on average
+        public double getExpectedSuccessfulProbes() {
+            return 1 + getLoad() / 2;
+        }
+
+        // Uniform hashing puts n - 1 other keys into the basket of a sampled key with chance 1 / capacity each
+        public double getExpectedUnsuccessfulProbes() {
+            return keyCount == 0 ? 0 : 1 + (keyCount - 1.0) / capacity;
+        }
+
+        // Number of baskets holding 0, 1, ... keys, the last slot counts every longer chain
+        public int[] getHistogram() {
+            return histogram.clone();
+        }
+
+        public int getKeyCount() {
+            return keyCount;
+        }
+
+        public double getLoad() {
+            return (double) keyCount / capacity;
+        }
+
+        public int getLongestChain() {
+            return longestChain;
+        }
+
+        public double getObservedSuccessfulProbes() {
+            return observedSuccessfulProbes;
+        }
+
+        // A miss for a key drawn like the sample lands in a basket in proportion to its length
+        public double getObservedUnsuccessfulProbes() {
+            return observedUnsuccessfulProbes;
+        }
+
+        public int getRecommendedInitialCapacity() {
+            return recommendedInitialCapacity;
+        }
+
+        public float getRecommendedLoadFactor() {
+            return recommendedLoadFactor;
+        }
+
+        // Baskets long enough to be converted to trees, which caps their probes at O(log n)
+        public int getTreeifiedBaskets() {
+            return treeifiedBaskets;
+        }
+
+        @Override
+        public String toString() {
+            return "keys=" + keyCount + ", distinct hash codes=" + distinctHashCodes
+                    + ", capacity=" + capacity + String.format(", load=%.3f", getLoad())
+                    + "\nchain length histogram=" + Arrays.toString(histogram)
+                    + "\nlongest chain=" + longestChain + ", treeified baskets=" + treeifiedBaskets
+                    + String.format("%nsuccessful probes: expected %.3f, observed %.3f",
+                    getExpectedSuccessfulProbes(), observedSuccessfulProbes)
+                    + String.format("%nunsuccessful probes: expected %.3f, observed %.3f",
+                    getExpectedUnsuccessfulProbes(), observedUnsuccessfulProbes)
+                    + "\nrecommended: new MyHashMap(" + recommendedInitialCapacity + ", "
+                    + recommendedLoadFactor + "f)";
+        }
+    }
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int TREEIFY_THRESHOLD = 8;
+    private static final int MIN_TREEIFY_CAPACITY = 64;
+    // Load factors tried by the advisor, smallest table first
+    private static final float[] CANDIDATE_LOAD_FACTORS = {1.0f, 0.75f, 0.5f, 0.25f};
+    // Accepted ratio of observed to ideal successful probes
+    private static final double PROBE_TOLERANCE = 1.25;
+
+    private MyHashMapAnalyzer() {
+    }
+
+    // Analyzes the keys of a live map at its current table capacity
+    public static Report analyze(MyHashMap map) {
+        Object[] keys = new Object[map.size()];
+        Iterator iter = map.entryIterator();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((MyMap.Entry) iter.next()).getKey();
+        }
+        return analyze(keys, map.capacity());
+    }
+
+    // Analyzes a key sample at the capacity a default MyHashMap would reach holding it
+    public static Report analyze(Iterable<?> keys) {
+        Object[] distinctKeys = distinct(keys);
+        return analyze(distinctKeys, Math.max(DEFAULT_INITIAL_CAPACITY, tableSizeFor(distinctKeys.length, DEFAULT_LOAD_FACTOR)));
+    }
+
+    public static Report analyze(Iterable<?> keys, int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        return analyze(distinct(keys), capacity);
+    }
+
+    private static Report analyze(Object[] keys, int capacity) {
+        int[] hashes = new int[keys.length];
+        Set<Integer> hashCodes = new HashSet<>();
+        for (int i = 0; i < keys.length; i++) {
+            hashes[i] = MyHashMap.hash(keys[i]);
+            hashCodes.add(hashes[i]);
+        }
+        int[] chains = chainLengths(hashes, capacity);
+        int[] histogram = new int[MyHashMapStats.HISTOGRAM_SIZE];
+        int longestChain = 0;
+        int treeifiedBaskets = 0;
+        for (int length : chains) {
+            histogram[Math.min(length, histogram.length - 1)]++;
+            longestChain = Math.max(longestChain, length);
+            if (length >= TREEIFY_THRESHOLD && capacity >= MIN_TREEIFY_CAPACITY) {
+                treeifiedBaskets++;
+            }
+        }
+        int recommendedCapacity = 0;
+        float recommendedLoadFactor = DEFAULT_LOAD_FACTOR;
+        for (float loadFactor : CANDIDATE_LOAD_FACTORS) {
+            int candidateCapacity = tableSizeFor(keys.length, loadFactor);
+            double ideal = 1 + (double) keys.length / candidateCapacity / 2;
+            if (successfulProbes(chainLengths(hashes, candidateCapacity), keys.length) <= ideal * PROBE_TOLERANCE) {
+                recommendedCapacity = candidateCapacity;
+                recommendedLoadFactor = loadFactor;
+                break;
+            }
+        }
+        // No table size helps when the hash codes themselves collide, so keep the default ratio
+        if (recommendedCapacity == 0) {
+            recommendedCapacity = tableSizeFor(keys.length, DEFAULT_LOAD_FACTOR);
+        }
+        return new Report(keys.length, hashCodes.size(), capacity, histogram, longestChain, treeifiedBaskets,
+                successfulProbes(chains, keys.length), unsuccessfulProbes(chains, keys.length),
+                recommendedCapacity, recommendedLoadFactor);
+    }
+
+    private static int[] chainLengths(int[] hashes, int capacity) {
+        int[] toReturn = new int[capacity];
+        for (int hash : hashes) {
+            toReturn[hash & capacity - 1]++;
+        }
+        return toReturn;
+    }
+
+    // The i-th key of a chain takes i comparisons to find
+    private static double successfulProbes(int[] chains, int keyCount) {
+        if (keyCount == 0) {
+            return 0;
+        }
+        double total = 0;
+        for (long length : chains) {
+            total += length * (length + 1) / 2;
+        }
+        return total / keyCount;
+    }
+
+    private static double unsuccessfulProbes(int[] chains, int keyCount) {
+        if (keyCount == 0) {
+            return 0;
+        }
+        double total = 0;
+        for (long length : chains) {
+            total += length * length;
+        }
+        return total / keyCount;
+    }
+
+    private static Object[] distinct(Iterable<?> keys) {
+        Set<Object> toReturn = new HashSet<>();
+        for (Object key : keys) {
+            toReturn.add(key);
+        }
+        return toReturn.toArray();
+    }
+
+    // Smallest power of two table holding keyCount keys without exceeding the load factor
+    private static int tableSizeFor(int keyCount, float loadFactor) {
+        long needed = (long) Math.ceil(keyCount / loadFactor);
+        if (needed >= MAXIMUM_CAPACITY) {
+            return MAXIMUM_CAPACITY;
+        }
+        return needed <= 1 ? 1 : Integer.highestOneBit((int) needed - 1) << 1;
+    }
+}
@@ -0,0 +1,125 @@
+package EPAM2015_lab9;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters of a MyHashMap created by enableStats(). Resizes are counted as they happen; the chain
+// histogram is computed when read, from the thread reading it, so it is only approximate while
+// the map is being written
+public class MyHashMapStats implements MyHashMapStatsMBean {
+
+    static final int HISTOGRAM_SIZE = 16;
+
+    private final MyHashMap map;
+    // Null when the flight recorder events are not available
+    private final Object periodicHook;
+    private volatile long resizeCount;
+    private volatile long totalResizeNanos;
+    private volatile long maxResizeNanos;
+    private ObjectName objectName;
+    private Object resizeEvent;
+    private long resizeStart;
+
+    MyHashMapStats(MyHashMap map) {
+        this.map = map;
+        MapFlightRecorder recorder = MapFlightRecorder.INSTANCE;
+        periodicHook = recorder == null ? null : recorder.addHashMapStatistics(map);
+    }
+
+    @Override
+    public int getCapacity() {
+        return map.capacity();
+    }
+
+    @Override
+    public int[] getChainLengthHistogram() {
+        int[] toReturn = new int[HISTOGRAM_SIZE];
+        map.chainLengths(toReturn);
+        return toReturn;
+    }
+
+    // Actual ratio of entries to baskets, not the configured threshold
+    @Override
+    public double getLoadFactor() {
+        return (double) map.size() / map.capacity();
+    }
+
+    @Override
+    public int getMaxChainLength() {
+        return map.chainLengths(new int[HISTOGRAM_SIZE]);
+    }
+
+    @Override
+    public long getMaxResizeNanos() {
+        return maxResizeNanos;
+    }
+
+    @Override
+    public long getResizeCount() {
+        return resizeCount;
+    }
+
+    @Override
+    public int getSize() {
+        return map.size();
+    }
+
+    @Override
+    public long getTotalResizeNanos() {
+        return totalResizeNanos;
+    }
+
+    @Override
+    public void reset() {
+        resizeCount = 0;
+        totalResizeNanos = 0;
+        maxResizeNanos = 0;
+    }
+
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        unregisterMBean();
+        ObjectName toRegister = new ObjectName("EPAM2015_lab9:type=MyHashMap,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, toRegister);
+        objectName = toRegister;
+        return toRegister;
+    }
+
+    public synchronized void unregisterMBean() throws JMException {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    // Called by the map's writer only
+    void beginResize() {
+        MapFlightRecorder recorder = MapFlightRecorder.INSTANCE;
+        resizeEvent = recorder == null ? null : recorder.beginHashMapResize();
+        resizeStart = System.nanoTime();
+    }
+
+    // For an incremental resize this times the table switch, migration is spread over later writes
+    void endResize(int oldCapacity, int newCapacity, boolean incremental) {
+        long nanos = System.nanoTime() - resizeStart;
+        Object event = resizeEvent;
+        resizeEvent = null;
+        if (event != null) {
+            MapFlightRecorder.INSTANCE.endHashMapResize(event, oldCapacity, newCapacity, map.size(), incremental);
+        }
+        resizeCount++;
+        totalResizeNanos += nanos;
+        maxResizeNanos = Math.max(maxResizeNanos, nanos);
+    }
+
+    void close() {
+        if (periodicHook != null) {
+            MapFlightRecorder.INSTANCE.removePeriodic(periodicHook);
+        }
+        try {
+            unregisterMBean();
+        } catch (JMException ignored) {
+            // Already unregistered by a management client
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package EPAM2015_lab9;
+
+public interface MyHashMapStatsMBean {
+
+    int getCapacity();
+
+    // Number of baskets holding 0, 1, ... entries, the last slot counts every longer chain
+    int[] getChainLengthHistogram();
+
+    double getLoadFactor();
+
+    int getMaxChainLength();
+
+    long getMaxResizeNanos();
+
+    long getResizeCount();
+
+    int getSize();
+
+    long getTotalResizeNanos();
+
+    void reset();
+}
@@ -1,6 +1,16 @@
 package EPAM2015_lab9;
 
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface MyMap {
 
@@ -16,6 +26,18 @@ public interface MyMap {
         Object setValue(Object value);
     }
 
+    // Reusable read position; advance() steps to the next entry and returns false past the last one
+    interface Cursor {
+        boolean advance();
+
+        Object key();
+
+        // Rewinds to before the first entry, so one cursor can serve repeated scans
+        void reset();
+
+        Object value();
+    }
+
     void clear();
 
     boolean containsKey(Object key);
@@ -33,4 +55,193 @@ public interface MyMap {
     int size();
 
     Iterator entryIterator();
+
+    // Writes {key=value, ...} in iteration order without building the whole string first
+    default void appendTo(Appendable out) throws IOException {
+        out.append('{');
+        Cursor cursor = cursor();
+        boolean first = true;
+        while (cursor.advance()) {
+            if (!first) {
+                out.append(", ");
+            }
+            first = false;
+            out.append(String.valueOf(cursor.key())).append('=').append(String.valueOf(cursor.value()));
+        }
+        out.append('}');
+    }
+
+    // Implementations walking their own nodes override this, the default wraps the iterator
+    default Cursor cursor() {
+        return new Cursor() {
+
+            private Iterator iter = entryIterator();
+            private Entry curEntry;
+
+            @Override
+            public boolean advance() {
+                curEntry = iter.hasNext() ? (Entry) iter.next() : null;
+                return curEntry != null;
+            }
+
+            @Override
+            public Object key() {
+                return current().getKey();
+            }
+
+            @Override
+            public void reset() {
+                iter = entryIterator();
+                curEntry = null;
+            }
+
+            @Override
+            public Object value() {
+                return current().getValue();
+            }
+
+            private Entry current() {
+                if (curEntry == null) {
+                    throw new NoSuchElementException();
+                }
+                return curEntry;
+            }
+        };
+    }
+
+    default void forEach(BiConsumer<Object, Object> action) {
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            Entry curEntry = (Entry) iter.next();
+            action.accept(curEntry.getKey(), curEntry.getValue());
+        }
+    }
+
+    // The compute family treats a null value as absent and removes the entry when the function
+    // returns null. These defaults look the key up, then write; maps override them to do both in
+    // one traversal, and thread-safe maps to make them atomic
+    default Object compute(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        Object oldValue = get(key);
+        Object newValue = remappingFunction.apply(key, oldValue);
+        if (newValue != null) {
+            put(key, newValue);
+        } else if (oldValue != null || containsKey(key)) {
+            remove(key);
+        }
+        return newValue;
+    }
+
+    default Object computeIfAbsent(Object key, Function<Object, Object> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        Object value = get(key);
+        if (value == null) {
+            value = mappingFunction.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    default Object computeIfPresent(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        Object oldValue = get(key);
+        if (oldValue == null) {
+            return null;
+        }
+        Object newValue = remappingFunction.apply(key, oldValue);
+        if (newValue != null) {
+            put(key, newValue);
+        } else {
+            remove(key);
+        }
+        return newValue;
+    }
+
+    default Object merge(Object key, Object value, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        Object oldValue = get(key);
+        Object newValue = oldValue == null ? value : remappingFunction.apply(oldValue, value);
+        if (newValue != null) {
+            put(key, newValue);
+        } else {
+            remove(key);
+        }
+        return newValue;
+    }
+
+    // Returns the current value, or null after putting the given one
+    default Object putIfAbsent(Object key, Object value) {
+        Object toReturn = get(key);
+        if (toReturn == null) {
+            toReturn = put(key, value);
+        }
+        return toReturn;
+    }
+
+    // Batch calls write the value of keys[i] to values[i] and, unless previous is null, the value
+    // a write replaced to previous[i]. The result is that of handling the keys one by one in array
+    // order; maps override these to visit their storage in an order that suits it
+    default void getAll(Object[] keys, Object[] values) {
+        BulkTasks.checkBatch(keys, values, null);
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = get(keys[i]);
+        }
+    }
+
+    default void putAll(Object[] keys, Object[] values, Object[] previous) {
+        BulkTasks.checkBatch(keys, values, previous);
+        for (int i = 0; i < keys.length; i++) {
+            Object toReturn = put(keys[i], values[i]);
+            if (previous != null) {
+                previous[i] = toReturn;
+            }
+        }
+    }
+
+    default void removeAll(Object[] keys, Object[] previous) {
+        BulkTasks.checkBatch(keys, null, previous);
+        for (int i = 0; i < keys.length; i++) {
+            Object toReturn = remove(keys[i]);
+            if (previous != null) {
+                previous[i] = toReturn;
+            }
+        }
+    }
+
+    // Implementations with a splittable layout override this, the default splits off batches
+    // of the sequential iterator
+    default Spliterator<Entry> spliterator() {
+        return Spliterators.spliterator(entryIterator(), size(), Spliterator.DISTINCT);
+    }
+
+    default Stream<Entry> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    default Stream<Entry> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    // Parallel bulk operations, run sequentially when at most parallelismThreshold entries remain
+    default void forEach(long parallelismThreshold, BiConsumer<Object, Object> action) {
+        BulkTasks.forEach(this, parallelismThreshold, action);
+    }
+
+    // Returns a non-null result of the function for some entry, or null; stops all tasks once found
+    default Object search(long parallelismThreshold, BiFunction<Object, Object, Object> searchFunction) {
+        return BulkTasks.search(this, parallelismThreshold, searchFunction);
+    }
+
+    // Accumulates the non-null values with the reducer, or returns null if there are none
+    default Object reduceValues(long parallelismThreshold, BiFunction<Object, Object, Object> reducer) {
+        return BulkTasks.reduceValues(this, parallelismThreshold, reducer);
+    }
+
+    default boolean containsValue(long parallelismThreshold, Object value) {
+        return BulkTasks.search(this, parallelismThreshold,
+                (k, v) -> Objects.equals(v, value) ? Boolean.TRUE : null) != null;
+    }
 }
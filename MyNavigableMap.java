@@ -0,0 +1,38 @@
+package EPAM2015_lab9;
+
+import java.util.Iterator;
+
+public interface MyNavigableMap extends MyMap {
+
+    Entry ceilingEntry(Object key);
+
+    Object ceilingKey(Object key);
+
+    Iterator descendingEntryIterator();
+
+    Entry firstEntry();
+
+    Object firstKey();
+
+    Entry floorEntry(Object key);
+
+    Object floorKey(Object key);
+
+    MyNavigableMap headMap(Object toKey, boolean inclusive);
+
+    Entry higherEntry(Object key);
+
+    Object higherKey(Object key);
+
+    Entry lastEntry();
+
+    Object lastKey();
+
+    Entry lowerEntry(Object key);
+
+    Object lowerKey(Object key);
+
+    MyNavigableMap subMap(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive);
+
+    MyNavigableMap tailMap(Object fromKey, boolean inclusive);
+}
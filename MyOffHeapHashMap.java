@@ -0,0 +1,397 @@
+package EPAM2015_lab9;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+// Keys and values are String, byte[], Integer, Long or null, stored serialized in direct buffers
+// outside the heap. byte[] keys are matched by content rather than identity
+public class MyOffHeapHashMap implements MyMap {
+
+    // Deserialized copy of a record, setValue writes through to the map
+    private class SimpleEntry implements MyMap.Entry {
+
+        private final Object key;
+        private Object value;
+
+        public SimpleEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object toReturn = this.value;
+            put(key, this.value = value);
+            return toReturn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.deepEquals(key, ((MyMap.Entry) o).getKey()) &&
+                    Objects.deepEquals(value, ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return BinaryCodec.hashCode(key) ^ BinaryCodec.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private int count;
+        private int curSlot = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return count < size;
+        }
+
+        @Override
+        public Entry next() {
+            if (count >= size) {
+                throw new NoSuchElementException();
+            }
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            for (int i = curSlot + 1; i < addresses.length; i++) {
+                if (addresses[i] != 0) {
+                    curSlot = i;
+                    count++;
+                    return new SimpleEntry(readKey(addresses[i]), readValue(addresses[i]));
+                }
+            }
+            throw new NoSuchElementException();
+        }
+    }
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    // Record layout: key length, value length, key bytes, value bytes
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    // Address 0 marks a free slot, so slab numbers are stored one-based in the high word
+    private long[] addresses;
+    private int[] hashes;
+    private List<ByteBuffer> slabs = new ArrayList<>();
+    private final int slabSize;
+    private long liveBytes;
+    private long deadBytes;
+    private float loadFactor;
+    private int size;
+    private int modCount;
+
+    public MyOffHeapHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, DEFAULT_SLAB_SIZE);
+    }
+
+    public MyOffHeapHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, DEFAULT_SLAB_SIZE);
+    }
+
+    public MyOffHeapHashMap(int initialCapacity, float loadFactor, int slabSize) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: "
+                    + initialCapacity);
+        }
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        if (slabSize < HEADER_SIZE) {
+            throw new IllegalArgumentException("Illegal slab size: " + slabSize);
+        }
+        int capacity = tableSizeFor((int) Math.min(MAXIMUM_CAPACITY, Math.ceil(initialCapacity / loadFactor)));
+        this.addresses = new long[Math.max(2, capacity)];
+        this.hashes = new int[addresses.length];
+        this.loadFactor = loadFactor;
+        this.slabSize = slabSize;
+    }
+
+    // Drops every slab at once; the direct buffers are released by their cleaners, not per entry
+    @Override
+    public void clear() {
+        addresses = new long[addresses.length];
+        hashes = new int[hashes.length];
+        slabs = new ArrayList<>();
+        liveBytes = 0;
+        deadBytes = 0;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!BinaryCodec.isSupported(key)) {
+            return false;
+        }
+        byte[] bytes = BinaryCodec.encode(key);
+        return addresses[indexOf(bytes, BinaryCodec.hash(bytes))] != 0;
+    }
+
+    // Compares serialized values, nothing is deserialized
+    @Override
+    public boolean containsValue(Object value) {
+        if (!BinaryCodec.isSupported(value)) {
+            return false;
+        }
+        byte[] bytes = BinaryCodec.encode(value);
+        for (long address : addresses) {
+            if (address != 0) {
+                ByteBuffer slab = slabOf(address);
+                int offset = offsetOf(address);
+                if (BinaryCodec.equals(slab, offset + HEADER_SIZE + slab.getInt(offset),
+                        slab.getInt(offset + Integer.BYTES), bytes)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (!BinaryCodec.isSupported(key)) {
+            return null;
+        }
+        byte[] bytes = BinaryCodec.encode(key);
+        long address = addresses[indexOf(bytes, BinaryCodec.hash(bytes))];
+        return address == 0 ? null : readValue(address);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Records are append-only: an update writes a new record and leaves the old one dead
+    @Override
+    public Object put(Object key, Object value) {
+        byte[] keyBytes = BinaryCodec.encode(key);
+        byte[] valueBytes = BinaryCodec.encode(value);
+        int hash = BinaryCodec.hash(keyBytes);
+        int slot = indexOf(keyBytes, hash);
+        long oldAddress = addresses[slot];
+        Object toReturn = null;
+        if (oldAddress != 0) {
+            toReturn = readValue(oldAddress);
+            deadBytes += recordSize(oldAddress);
+            liveBytes -= recordSize(oldAddress);
+        }
+        addresses[slot] = append(keyBytes, valueBytes);
+        hashes[slot] = hash;
+        if (oldAddress == 0) {
+            if (++size > addresses.length * loadFactor && addresses.length < MAXIMUM_CAPACITY) {
+                resize(addresses.length << 1);
+            }
+            modCount++;
+        }
+        compactIfSparse();
+        return toReturn;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (!BinaryCodec.isSupported(key)) {
+            return null;
+        }
+        byte[] bytes = BinaryCodec.encode(key);
+        int slot = indexOf(bytes, BinaryCodec.hash(bytes));
+        long address = addresses[slot];
+        if (address == 0) {
+            return null;
+        }
+        Object toReturn = readValue(address);
+        deadBytes += recordSize(address);
+        liveBytes -= recordSize(address);
+        shiftKeys(slot);
+        size--;
+        modCount++;
+        compactIfSparse();
+        return toReturn;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+
+    // Returns the slot holding the key or the free slot that ends its probe sequence
+    private int indexOf(byte[] keyBytes, int hash) {
+        int mask = addresses.length - 1;
+        int slot = hash & mask;
+        long address;
+        while ((address = addresses[slot]) != 0) {
+            if (hashes[slot] == hash) {
+                ByteBuffer slab = slabOf(address);
+                int offset = offsetOf(address);
+                if (BinaryCodec.equals(slab, offset + HEADER_SIZE, slab.getInt(offset), keyBytes)) {
+                    break;
+                }
+            }
+            slot = slot + 1 & mask;
+        }
+        return slot;
+    }
+
+    private long append(byte[] keyBytes, byte[] valueBytes) {
+        int recordSize = HEADER_SIZE + keyBytes.length + valueBytes.length;
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slab.remaining() < recordSize) {
+            slab = ByteBuffer.allocateDirect(Math.max(slabSize, recordSize));
+            slabs.add(slab);
+        }
+        long toReturn = (long) slabs.size() << 32 | slab.position();
+        slab.putInt(keyBytes.length).putInt(valueBytes.length).put(keyBytes).put(valueBytes);
+        liveBytes += recordSize;
+        return toReturn;
+    }
+
+    // Rewrites the live records into fresh slabs once dead records outweigh them
+    private void compactIfSparse() {
+        if (deadBytes < slabSize || deadBytes < liveBytes) {
+            return;
+        }
+        List<ByteBuffer> oldSlabs = slabs;
+        slabs = new ArrayList<>();
+        liveBytes = 0;
+        deadBytes = 0;
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] != 0) {
+                ByteBuffer slab = oldSlabs.get((int) (addresses[i] >>> 32) - 1);
+                int offset = offsetOf(addresses[i]);
+                int keyLength = slab.getInt(offset);
+                int valueLength = slab.getInt(offset + Integer.BYTES);
+                addresses[i] = append(read(slab, offset + HEADER_SIZE, keyLength),
+                        read(slab, offset + HEADER_SIZE + keyLength, valueLength));
+            }
+        }
+    }
+
+    private Object readKey(long address) {
+        ByteBuffer slab = slabOf(address);
+        int offset = offsetOf(address);
+        return BinaryCodec.decode(slab, offset + HEADER_SIZE, slab.getInt(offset));
+    }
+
+    private Object readValue(long address) {
+        ByteBuffer slab = slabOf(address);
+        int offset = offsetOf(address);
+        return BinaryCodec.decode(slab, offset + HEADER_SIZE + slab.getInt(offset),
+                slab.getInt(offset + Integer.BYTES));
+    }
+
+    private int recordSize(long address) {
+        ByteBuffer slab = slabOf(address);
+        int offset = offsetOf(address);
+        return HEADER_SIZE + slab.getInt(offset) + slab.getInt(offset + Integer.BYTES);
+    }
+
+    private ByteBuffer slabOf(long address) {
+        return slabs.get((int) (address >>> 32) - 1);
+    }
+
+    private void resize(int newCap) {
+        long[] oldAddresses = addresses;
+        int[] oldHashes = hashes;
+        int mask = newCap - 1;
+        addresses = new long[newCap];
+        hashes = new int[newCap];
+        for (int i = 0; i < oldAddresses.length; i++) {
+            if (oldAddresses[i] != 0) {
+                int slot = oldHashes[i] & mask;
+                while (addresses[slot] != 0) {
+                    slot = slot + 1 & mask;
+                }
+                addresses[slot] = oldAddresses[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    // Backward shift deletion keeps linear probe sequences intact without tombstones
+    private void shiftKeys(int slot) {
+        int mask = addresses.length - 1;
+        for (;;) {
+            int last = slot;
+            for (;;) {
+                slot = slot + 1 & mask;
+                if (addresses[slot] == 0) {
+                    addresses[last] = 0;
+                    hashes[last] = 0;
+                    return;
+                }
+                int home = hashes[slot] & mask;
+                if (last <= slot ? last >= home || home > slot : last >= home && home > slot) {
+                    break;
+                }
+            }
+            addresses[last] = addresses[slot];
+            hashes[last] = hashes[slot];
+        }
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private static byte[] read(ByteBuffer slab, int offset, int length) {
+        byte[] toReturn = new byte[length];
+        ByteBuffer src = slab.duplicate();
+        src.position(offset);
+        src.get(toReturn);
+        return toReturn;
+    }
+
+    private static int tableSizeFor(int cap) {
+        if (--cap > 0) {
+            for (int mask = 1 << 30; mask > 0; mask >>>= 1) {
+                if ((mask & cap) > 0) {
+                    return mask >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : mask << 1;
+                }
+            }
+        }
+        return 1;
+    }
+}
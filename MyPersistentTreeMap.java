@@ -0,0 +1,411 @@
+package EPAM2015_lab9;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+// Left-leaning red-black tree without parent pointers, so a mutation can copy just the path from
+// the root to the changed node. Nodes created since the last snapshot() belong to the current epoch
+// and are updated in place; older nodes may be shared with snapshots and are copied before a write.
+// A snapshot is an immutable map over the root at the time it was taken and needs no locking
+public class MyPersistentTreeMap implements MyMap {
+
+    private static final boolean BLACK = true;
+    private static final boolean RED = false;
+
+    private static final class Node {
+
+        private Object key;
+        private Object value;
+        private Node left;
+        private Node right;
+        private boolean color;
+        private final long epoch;
+
+        private Node(Object key, Object value, boolean color, long epoch) {
+            this.key = key;
+            this.value = value;
+            this.color = color;
+            this.epoch = epoch;
+        }
+
+        private Node(Node node, long epoch) {
+            this(node.key, node.value, node.color, epoch);
+            this.left = node.left;
+            this.right = node.right;
+        }
+    }
+
+    // Copy of a node, setValue writes through to the map since the node may be shared
+    private class SimpleEntry implements MyMap.Entry {
+
+        private final Object key;
+        private Object value;
+
+        public SimpleEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object toReturn = this.value;
+            put(key, this.value = value);
+            return toReturn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.equals(key, ((MyMap.Entry) o).getKey()) &&
+                    Objects.equals(value, ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    // In-order walk keeping the left spine of the unvisited part on a stack
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private final Deque<Node> stack = new ArrayDeque<>();
+        private int expectedModCount = modCount;
+
+        private EntryIterator() {
+            pushLeft(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public Entry next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            Node node = stack.pop();
+            pushLeft(node.right);
+            return new SimpleEntry(node.key, node.value);
+        }
+
+        private void pushLeft(Node node) {
+            for (; node != null; node = node.left) {
+                stack.push(node);
+            }
+        }
+    }
+
+    private Node root;
+    private final Comparator comparator;
+    private final boolean frozen;
+    private long epoch;
+    private int size;
+    private int modCount;
+
+    public MyPersistentTreeMap() {
+        this(null);
+    }
+
+    public MyPersistentTreeMap(Comparator comparator) {
+        this(null, 0, comparator, false);
+    }
+
+    private MyPersistentTreeMap(Node root, int size, Comparator comparator, boolean frozen) {
+        this.root = root;
+        this.size = size;
+        this.comparator = comparator;
+        this.frozen = frozen;
+    }
+
+    @Override
+    public void clear() {
+        checkMutable();
+        root = null;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findNode(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            if (Objects.equals(((Entry) iter.next()).getValue(), value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    @Override
+    public Object get(Object key) {
+        Node node = findNode(key);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isSnapshot() {
+        return frozen;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        checkMutable();
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        Node node = findNode(key);
+        Object toReturn = node == null ? null : node.value;
+        root = put(root, key, value);
+        if (root.color != BLACK) {
+            root = own(root);
+            root.color = BLACK;
+        }
+        if (node == null) {
+            size++;
+            modCount++;
+        }
+        return toReturn;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        checkMutable();
+        Node node = findNode(key);
+        if (node == null) {
+            return null;
+        }
+        Object toReturn = node.value;
+        root = own(root);
+        if (!isRed(root.left) && !isRed(root.right)) {
+            root.color = RED;
+        }
+        root = delete(root, key);
+        if (root != null && root.color != BLACK) {
+            root = own(root);
+            root.color = BLACK;
+        }
+        size--;
+        modCount++;
+        return toReturn;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // O(1): freezes every existing node by starting a new epoch, later writes copy what they touch
+    public MyPersistentTreeMap snapshot() {
+        if (frozen) {
+            return this;
+        }
+        epoch++;
+        return new MyPersistentTreeMap(root, size, comparator, true);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+
+    private Node put(Node h, Object key, Object value) {
+        if (h == null) {
+            return new Node(key, value, RED, epoch);
+        }
+        h = own(h);
+        int cmp = compare(key, h.key);
+        if (cmp < 0) {
+            h.left = put(h.left, key, value);
+        } else if (cmp > 0) {
+            h.right = put(h.right, key, value);
+        } else {
+            h.value = value;
+        }
+        return balance(h);
+    }
+
+    // The key is known to be present
+    private Node delete(Node h, Object key) {
+        h = own(h);
+        if (compare(key, h.key) < 0) {
+            if (!isRed(h.left) && !isRed(h.left.left)) {
+                h = moveRedLeft(h);
+            }
+            h.left = delete(h.left, key);
+        } else {
+            if (isRed(h.left)) {
+                h = rotateRight(h);
+            }
+            if (compare(key, h.key) == 0 && h.right == null) {
+                return null;
+            }
+            if (!isRed(h.right) && !isRed(h.right.left)) {
+                h = moveRedRight(h);
+            }
+            if (compare(key, h.key) == 0) {
+                Node min = h.right;
+                while (min.left != null) {
+                    min = min.left;
+                }
+                h.key = min.key;
+                h.value = min.value;
+                h.right = deleteMin(h.right);
+            } else {
+                h.right = delete(h.right, key);
+            }
+        }
+        return balance(h);
+    }
+
+    private Node deleteMin(Node h) {
+        h = own(h);
+        if (h.left == null) {
+            return null;
+        }
+        if (!isRed(h.left) && !isRed(h.left.left)) {
+            h = moveRedLeft(h);
+        }
+        h.left = deleteMin(h.left);
+        return balance(h);
+    }
+
+    // The helpers below expect h to be owned by the current epoch and return an owned node
+    private Node balance(Node h) {
+        if (isRed(h.right) && !isRed(h.left)) {
+            h = rotateLeft(h);
+        }
+        if (isRed(h.left) && isRed(h.left.left)) {
+            h = rotateRight(h);
+        }
+        if (isRed(h.left) && isRed(h.right)) {
+            flipColors(h);
+        }
+        return h;
+    }
+
+    private Node moveRedLeft(Node h) {
+        flipColors(h);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right);
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    private Node moveRedRight(Node h) {
+        flipColors(h);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    private Node rotateLeft(Node h) {
+        Node x = own(h.right);
+        h.right = x.left;
+        x.left = h;
+        x.color = h.color;
+        h.color = RED;
+        return x;
+    }
+
+    private Node rotateRight(Node h) {
+        Node x = own(h.left);
+        h.left = x.right;
+        x.right = h;
+        x.color = h.color;
+        h.color = RED;
+        return x;
+    }
+
+    private void flipColors(Node h) {
+        h.color = !h.color;
+        h.left = own(h.left);
+        h.left.color = !h.left.color;
+        h.right = own(h.right);
+        h.right.color = !h.right.color;
+    }
+
+    private Node own(Node node) {
+        return node.epoch == epoch ? node : new Node(node, epoch);
+    }
+
+    private void checkMutable() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+    }
+
+    private Node findNode(Object key) {
+        if (key == null) {
+            return null;
+        }
+        Node curNode = root;
+        while (curNode != null) {
+            int cmp = compare(key, curNode.key);
+            if (cmp == 0) {
+                return curNode;
+            }
+            curNode = cmp < 0 ? curNode.left : curNode.right;
+        }
+        return null;
+    }
+
+    private int compare(Object o1, Object o2) {
+        return this.comparator == null
+                ? ((Comparable) o1).compareTo(o2) : this.comparator.compare(o1, o2);
+    }
+
+    private static boolean isRed(Node node) {
+        return node != null && node.color == RED;
+    }
+}
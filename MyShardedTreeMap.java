@@ -0,0 +1,485 @@
+package EPAM2015_lab9;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+// Ordered map over range partitions: split points divide the keys between MyTreeMap shards, each
+// behind its own StampedLock, so writers to different ranges never contend. A shard taking most
+// of the writes hands half its entries to its cooler neighbour by moving the split point between
+// them. Shards own their range under their lock and the split points only route, so an operation
+// routed by stale split points finds its key outside the shard and routes again
+public class MyShardedTreeMap implements MyMap {
+
+    // Copy of an entry taken under a shard lock, setValue writes through to the map
+    private class SimpleEntry implements MyMap.Entry {
+
+        private final Object key;
+        private Object value;
+
+        public SimpleEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object toReturn = this.value;
+            put(key, this.value = value);
+            return toReturn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry &&
+                    Objects.equals(key, ((Entry) o).getKey()) &&
+                    Objects.equals(value, ((Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    private class Shard {
+
+        private final int index;
+        private final StampedLock lock = new StampedLock();
+        private MyTreeMap tree;
+        // The shard holds the keys from low inclusive to high exclusive, null is unbounded
+        private Object low;
+        private Object high;
+        // Writes since the last rebalancing check, updated under the lock and read without it
+        private volatile int windowWrites;
+
+        private Shard(int index, Object low, Object high) {
+            this.index = index;
+            this.tree = new MyTreeMap(comparator);
+            this.low = low;
+            this.high = high;
+        }
+
+        private boolean covers(Object key) {
+            return (low == null || compare(key, low) >= 0) && (high == null || compare(key, high) < 0);
+        }
+    }
+
+    // Weakly consistent iterator: copies up to a batch of entries from one shard under its read
+    // lock and continues after the last key copied, so entries moved by a rebalance are neither
+    // repeated nor skipped. Merging the shards is concatenation, their ranges are ordered
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private final Object[] keys = new Object[BATCH_SIZE];
+        private final Object[] values = new Object[BATCH_SIZE];
+        private final Object toKey;
+        private final boolean toInclusive;
+        private Object fromKey;
+        private boolean fromInclusive;
+        private int count;
+        private int next;
+        private boolean exhausted;
+
+        private EntryIterator(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive) {
+            this.fromKey = fromKey;
+            this.fromInclusive = fromInclusive;
+            this.toKey = toKey;
+            this.toInclusive = toInclusive;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == count && !exhausted) {
+                fill();
+            }
+            return next < count;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry toReturn = new SimpleEntry(keys[next], values[next]);
+            keys[next] = null;
+            values[next++] = null;
+            return toReturn;
+        }
+
+        private void fill() {
+            count = 0;
+            next = 0;
+            Object key = fromKey;
+            boolean inclusive = fromInclusive;
+            while (true) {
+                Shard shard = key == null ? shards[0] : route(key);
+                Object high;
+                boolean pastEnd = false;
+                long stamp = shard.lock.readLock();
+                try {
+                    if (key != null && !shard.covers(key)) {
+                        continue;
+                    }
+                    MyTreeMap tree = shard.tree;
+                    Entry curEntry = key == null ? tree.firstEntry()
+                            : inclusive ? tree.ceilingEntry(key) : tree.higherEntry(key);
+                    while (curEntry != null && count < BATCH_SIZE) {
+                        if (!beforeEnd(curEntry.getKey())) {
+                            pastEnd = true;
+                            break;
+                        }
+                        keys[count] = curEntry.getKey();
+                        values[count++] = curEntry.getValue();
+                        curEntry = tree.successor(curEntry, MAX_STEPS);
+                    }
+                    high = shard.high;
+                } finally {
+                    shard.lock.unlockRead(stamp);
+                }
+                if (pastEnd || count == 0 && high == null) {
+                    exhausted = true;
+                }
+                if (count > 0 || exhausted) {
+                    if (count > 0) {
+                        fromKey = keys[count - 1];
+                        fromInclusive = false;
+                    }
+                    return;
+                }
+                key = high;
+                inclusive = true;
+            }
+        }
+
+        private boolean beforeEnd(Object key) {
+            if (toKey == null) {
+                return true;
+            }
+            int cmp = compare(key, toKey);
+            return cmp < 0 || cmp == 0 && toInclusive;
+        }
+    }
+
+    // A red-black tree of 2^31 entries is at most 62 levels high; successor may climb and descend
+    private static final int MAX_STEPS = 128;
+    private static final int BATCH_SIZE = 64;
+    // Writes to one shard after which it is compared with its neighbours
+    private static final int REBALANCE_WINDOW = 1 << 14;
+    // A shard takes twice the writes of its cooler neighbour before giving it entries
+    private static final int HOT_RATIO = 2;
+    private static final int MIN_MOVED_SIZE = 64;
+
+    private final Comparator comparator;
+    private final Shard[] shards;
+    // Replaced, never written, when a split point moves
+    private volatile Object[] splitPoints;
+    private final LongAdder size = new LongAdder();
+    private final ReentrantLock rebalanceLock = new ReentrantLock();
+
+    public MyShardedTreeMap(Object[] splitPoints) {
+        this(splitPoints, null);
+    }
+
+    // n split points in ascending order make n + 1 shards; the first starts below the first
+    // split point, each split point starts the next shard
+    public MyShardedTreeMap(Object[] splitPoints, Comparator comparator) {
+        this.comparator = comparator;
+        for (int i = 0; i < splitPoints.length; i++) {
+            Objects.requireNonNull(splitPoints[i]);
+            if (i > 0 && compare(splitPoints[i - 1], splitPoints[i]) >= 0) {
+                throw new IllegalArgumentException("Split points are not in ascending order: "
+                        + splitPoints[i - 1] + ", " + splitPoints[i]);
+            }
+        }
+        this.splitPoints = splitPoints.clone();
+        this.shards = new Shard[splitPoints.length + 1];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, i == 0 ? null : splitPoints[i - 1],
+                    i == splitPoints.length ? null : splitPoints[i]);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long[] stamps = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            stamps[i] = shards[i].lock.writeLock();
+        }
+        try {
+            for (Shard shard : shards) {
+                shard.tree.clear();
+            }
+            size.reset();
+        } finally {
+            for (int i = shards.length - 1; i >= 0; i--) {
+                shards[i].lock.unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    // The compute family runs under the write lock of the key's shard; the lock is not
+    // reentrant, so the function must not use this map
+    @Override
+    public Object compute(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return write(key, tree -> tree.compute(key, remappingFunction));
+    }
+
+    @Override
+    public Object computeIfAbsent(Object key, Function<Object, Object> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        return write(key, tree -> tree.computeIfAbsent(key, mappingFunction));
+    }
+
+    @Override
+    public Object computeIfPresent(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return write(key, tree -> tree.computeIfPresent(key, remappingFunction));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && read(key, true) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            if (Objects.equals(((Entry) iter.next()).getValue(), value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator(null, false, null, false);
+    }
+
+    // Range scan in key order across the shards, null bounds are open; weakly consistent
+    // like entryIterator()
+    public Iterator entryIterator(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive) {
+        if (fromKey != null && toKey != null && compare(fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return new EntryIterator(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public Object get(Object key) {
+        return key == null ? null : read(key, false);
+    }
+
+    // Current split points, which move as the shards are rebalanced
+    public Object[] getSplitPoints() {
+        return splitPoints.clone();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Object merge(Object key, Object value, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        return write(key, tree -> tree.merge(key, value, remappingFunction));
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        return write(key, tree -> tree.put(key, value));
+    }
+
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        return write(key, tree -> tree.putIfAbsent(key, value));
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return key == null ? null : write(key, tree -> tree.remove(key));
+    }
+
+    @Override
+    public int size() {
+        return (int) size.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+
+    // Shard whose range held the key when the split points were last replaced
+    private Shard route(Object key) {
+        Object[] points = splitPoints;
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(key, points[mid]) >= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return shards[low];
+    }
+
+    // Returns the value, or for a presence check the entry, of the key under an optimistic
+    // stamp, falling back to the read lock
+    private Object read(Object key, boolean entry) {
+        while (true) {
+            Shard shard = route(key);
+            long stamp = shard.lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    boolean covered = shard.covers(key);
+                    Entry found = covered ? shard.tree.findEntry(key, MAX_STEPS) : null;
+                    Object toReturn = entry || found == null ? found : found.getValue();
+                    if (shard.lock.validate(stamp)) {
+                        if (covered) {
+                            return toReturn;
+                        }
+                        continue;
+                    }
+                } catch (RuntimeException ignored) {
+                    // Torn read of a tree being restructured, retried under the read lock
+                }
+            }
+            stamp = shard.lock.readLock();
+            try {
+                if (shard.covers(key)) {
+                    Entry found = shard.tree.findEntry(key, MAX_STEPS);
+                    return entry || found == null ? found : found.getValue();
+                }
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    // Runs the operation on the tree of the key's shard under its write lock and keeps the size
+    // in step; the shard is checked for rebalancing after the lock is released
+    private Object write(Object key, Function<MyTreeMap, Object> operation) {
+        Objects.requireNonNull(key);
+        while (true) {
+            Shard shard = route(key);
+            Object toReturn;
+            boolean windowFull;
+            long stamp = shard.lock.writeLock();
+            try {
+                if (!shard.covers(key)) {
+                    continue;
+                }
+                int oldSize = shard.tree.size();
+                toReturn = operation.apply(shard.tree);
+                if (shard.tree.size() != oldSize) {
+                    size.add(shard.tree.size() - oldSize);
+                }
+                windowFull = ++shard.windowWrites >= REBALANCE_WINDOW;
+            } finally {
+                shard.lock.unlockWrite(stamp);
+            }
+            if (windowFull) {
+                rebalance(shard);
+            }
+            return toReturn;
+        }
+    }
+
+    // Compares the hot shard with its neighbours over the writes since the last check and, if
+    // it took HOT_RATIO times the writes of the cooler one, moves the split point between them
+    // to the hot shard's root key. That hands over about half its entries with one split and
+    // one join, O(log n) each apart from sizing the split. All windows restart so the next
+    // check compares the same period; racing with the writers' increments only loses counts
+    private void rebalance(Shard hot) {
+        if (!rebalanceLock.tryLock()) {
+            return;
+        }
+        try {
+            Shard left = hot.index > 0 ? shards[hot.index - 1] : null;
+            Shard right = hot.index < shards.length - 1 ? shards[hot.index + 1] : null;
+            Shard cooler = right == null || left != null && left.windowWrites < right.windowWrites ? left : right;
+            if (cooler != null && hot.windowWrites >= HOT_RATIO * cooler.windowWrites) {
+                moveSplitPoint(hot, cooler);
+            }
+            for (Shard shard : shards) {
+                shard.windowWrites = 0;
+            }
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+
+    // Locks the two shards in index order, writers hold one lock at a time so this cannot deadlock.
+    // The new split points are published before the locks are released, so a writer that then
+    // finds its key outside a shard routes to the right one
+    private void moveSplitPoint(Shard hot, Shard cooler) {
+        Shard first = hot.index < cooler.index ? hot : cooler;
+        Shard second = first == hot ? cooler : hot;
+        long firstStamp = first.lock.writeLock();
+        long secondStamp = second.lock.writeLock();
+        try {
+            Object splitKey = hot.tree.rootKey();
+            if (hot.tree.size() < MIN_MOVED_SIZE || hot.low != null && compare(splitKey, hot.low) <= 0) {
+                return;
+            }
+            MyTreeMap upper = hot.tree.split(splitKey);
+            if (cooler == second) {
+                upper.join(cooler.tree);
+                cooler.tree = upper;
+                hot.high = splitKey;
+                cooler.low = splitKey;
+            } else {
+                cooler.tree.join(hot.tree);
+                hot.tree = upper;
+                hot.low = splitKey;
+                cooler.high = splitKey;
+            }
+            Object[] points = splitPoints.clone();
+            points[first.index] = splitKey;
+            splitPoints = points;
+        } finally {
+            second.lock.unlockWrite(secondStamp);
+            first.lock.unlockWrite(firstStamp);
+        }
+    }
+
+    private int compare(Object o1, Object o2) {
+        return comparator == null ? ((Comparable) o1).compareTo(o2) : comparator.compare(o1, o2);
+    }
+}
@@ -0,0 +1,375 @@
+package EPAM2015_lab9;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+// Open addressing over flat key and value arrays. Each slot has a control byte: EMPTY, DELETED or,
+// for a full slot, 7 bits of the key's hash. Slots are probed in groups of 8 whose control bytes are
+// packed into one long and compared at once, so equals() is only called where the hash bits agree
+// and a miss usually ends after reading a single word
+public class MySwissHashMap implements MyMap {
+
+    private class SimpleEntry implements MyMap.Entry {
+
+        private final Object key;
+        private Object value;
+
+        public SimpleEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            this.value = value;
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MyMap.Entry &&
+                    Objects.equals(key, ((MyMap.Entry) o).getKey()) &&
+                    Objects.equals(value, ((MyMap.Entry) o).getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    private class EntryIterator implements Iterator<MyMap.Entry> {
+
+        private int count;
+        private int curSlot = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return count < size;
+        }
+
+        @Override
+        public Entry next() {
+            if (count >= size) {
+                throw new NoSuchElementException();
+            }
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            for (int i = curSlot + 1; i < keys.length; i++) {
+                if (isFull(i)) {
+                    curSlot = i;
+                    count++;
+                    return new SimpleEntry(keys[i], values[i]);
+                }
+            }
+            throw new NoSuchElementException();
+        }
+    }
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    // A probe stops on an empty byte, so some must always be left
+    private static final float MAX_LOAD_FACTOR = 0.875f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int GROUP_SIZE = 8;
+    private static final long EMPTY = 0x80;
+    private static final long DELETED = 0xFE;
+    private static final long LSBS = 0x0101010101010101L;
+    private static final long MSBS = 0x8080808080808080L;
+
+    private long[] controls;
+    private Object[] keys;
+    private Object[] values;
+    private final float loadFactor;
+    // Inserts into empty slots left before a rehash, tombstones use up growth like live entries
+    private int growthLeft;
+    private int size;
+    private int modCount;
+
+    public MySwissHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, MAX_LOAD_FACTOR);
+    }
+
+    public MySwissHashMap(int initialCapacity) {
+        this(initialCapacity, MAX_LOAD_FACTOR);
+    }
+
+    // As in MyHashMap initialCapacity is the table size; load factors above 7/8 are lowered to it
+    public MySwissHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: "
+                    + initialCapacity);
+        }
+        if (loadFactor <= 0 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        this.loadFactor = Math.min(loadFactor, MAX_LOAD_FACTOR);
+        allocate(tableSizeFor(Math.max(GROUP_SIZE, initialCapacity)));
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(controls, EMPTY * LSBS);
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        growthLeft = maxSize(keys.length);
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findSlot(key, spread(key)) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < keys.length; i++) {
+            if (isFull(i) && Objects.equals(values[i], value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    @Override
+    public Object get(Object key) {
+        int slot = findSlot(key, spread(key));
+        return slot < 0 ? null : values[slot];
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        long hash = spread(key);
+        int slot = findSlot(key, hash);
+        if (slot >= 0) {
+            Object toReturn = values[slot];
+            values[slot] = value;
+            return toReturn;
+        }
+        slot = findFreeSlot(hash);
+        if (growthLeft == 0 && controlAt(slot) == EMPTY) {
+            rehash();
+            slot = findFreeSlot(hash);
+        }
+        insert(slot, hash, key, value);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    // Grows the table once for all incoming keys
+    public void putAll(MyMap map) {
+        int capacity = capacityFor(keys.length, (long) size + map.size());
+        if (capacity > keys.length) {
+            resize(capacity);
+        }
+        Iterator iter = map.entryIterator();
+        while (iter.hasNext()) {
+            Entry curEntry = (Entry) iter.next();
+            put(curEntry.getKey(), curEntry.getValue());
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int slot = findSlot(key, spread(key));
+        if (slot < 0) {
+            return null;
+        }
+        Object toReturn = values[slot];
+        // A group that still has an empty byte has never been full, so no probe went on past it
+        // and the slot can be freed outright instead of leaving a tombstone
+        if (matchEmpty(controls[slot / GROUP_SIZE]) != 0) {
+            setControl(slot, EMPTY);
+            growthLeft++;
+        } else {
+            setControl(slot, DELETED);
+        }
+        keys[slot] = null;
+        values[slot] = null;
+        size--;
+        modCount++;
+        return toReturn;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toReturn = new StringBuilder("{");
+        Iterator iter = entryIterator();
+        while (iter.hasNext()) {
+            toReturn.append(iter.next());
+            if (iter.hasNext()) {
+                toReturn.append(", ");
+            }
+        }
+        return toReturn.append('}').toString();
+    }
+
+    // Groups are visited at triangular offsets, which covers every group of a power of two table
+    private int findSlot(Object key, long hash) {
+        long pattern = (hash >>> 57) * LSBS;
+        int mask = controls.length - 1;
+        int group = (int) (hash >>> 25) & mask;
+        for (int step = 1; ; step++) {
+            long control = controls[group];
+            for (long match = matchByte(control, pattern); match != 0; match &= match - 1) {
+                int slot = group * GROUP_SIZE + (Long.numberOfTrailingZeros(match) >>> 3);
+                if (Objects.equals(keys[slot], key)) {
+                    return slot;
+                }
+            }
+            if (matchEmpty(control) != 0) {
+                return -1;
+            }
+            group = group + step & mask;
+        }
+    }
+
+    // First empty or deleted slot on the key's probe sequence
+    private int findFreeSlot(long hash) {
+        int mask = controls.length - 1;
+        int group = (int) (hash >>> 25) & mask;
+        for (int step = 1; ; step++) {
+            long match = matchEmptyOrDeleted(controls[group]);
+            if (match != 0) {
+                return group * GROUP_SIZE + (Long.numberOfTrailingZeros(match) >>> 3);
+            }
+            group = group + step & mask;
+        }
+    }
+
+    private void insert(int slot, long hash, Object key, Object value) {
+        if (controlAt(slot) == EMPTY) {
+            growthLeft--;
+        }
+        setControl(slot, hash >>> 57);
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    // Doubles the table, or only drops the tombstones when they take up most of the growth
+    private void rehash() {
+        if (size <= maxSize(keys.length) / 2 || keys.length == MAXIMUM_CAPACITY) {
+            resize(keys.length);
+        } else {
+            resize(capacityFor(keys.length << 1, size + 1L));
+        }
+        if (growthLeft == 0) {
+            throw new IllegalStateException("Map is full");
+        }
+    }
+
+    private void resize(int newCap) {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        long[] oldControls = controls;
+        allocate(newCap);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if ((oldControls[i / GROUP_SIZE] >>> (i % GROUP_SIZE << 3) & EMPTY) == 0) {
+                long hash = spread(oldKeys[i]);
+                insert(findFreeSlot(hash), hash, oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        controls = new long[capacity / GROUP_SIZE];
+        Arrays.fill(controls, EMPTY * LSBS);
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        growthLeft = maxSize(capacity);
+    }
+
+    // Smallest table of at least minCapacity slots taking expectedSize entries
+    private int capacityFor(int minCapacity, long expectedSize) {
+        int capacity = minCapacity;
+        while (capacity < MAXIMUM_CAPACITY && maxSize(capacity) < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private int maxSize(int capacity) {
+        return Math.max(1, (int) (capacity * loadFactor));
+    }
+
+    private boolean isFull(int slot) {
+        return (controlAt(slot) & EMPTY) == 0;
+    }
+
+    private long controlAt(int slot) {
+        return controls[slot / GROUP_SIZE] >>> (slot % GROUP_SIZE << 3) & 0xFF;
+    }
+
+    private void setControl(int slot, long control) {
+        int shift = slot % GROUP_SIZE << 3;
+        int group = slot / GROUP_SIZE;
+        controls[group] = controls[group] & ~(0xFFL << shift) | control << shift;
+    }
+
+    // The top 7 bits of the product become the control byte and the bits below pick the first group
+    private static long spread(Object key) {
+        return Objects.hashCode(key) * 0x9E3779B97F4A7C15L;
+    }
+
+    // SWAR byte compare: sets the high bit of each byte equal to the pattern byte. A borrow can also
+    // flag a byte one above a real match, that byte is always a full slot and fails the equals() check
+    private static long matchByte(long control, long pattern) {
+        long x = control ^ pattern;
+        return x - LSBS & ~x & MSBS;
+    }
+
+    // EMPTY and DELETED both have the high bit set, only DELETED has bit 1 set as well
+    private static long matchEmpty(long control) {
+        return control & ~(control << 6) & MSBS;
+    }
+
+    private static long matchEmptyOrDeleted(long control) {
+        return control & MSBS;
+    }
+
+    private static int tableSizeFor(int cap) {
+        if (--cap > 0) {
+            for (int mask = 1 << 30; mask > 0; mask >>>= 1) {
+                if ((mask & cap) > 0) {
+                    return mask >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : mask << 1;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -1,11 +1,25 @@
 package EPAM2015_lab9;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
-public class MyTreeMap implements MyMap {
+public class MyTreeMap implements MyNavigableMap {
 
     private static final boolean BLACK = true;
     private static final boolean RED = false;
+    // Set operations involving fewer entries stay on the calling thread
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    // Levels of a set operation that fork, up to 2^FORK_DEPTH tasks
+    private static final int FORK_DEPTH = 8;
 
     private static class SimpleEntry implements Entry {
 
@@ -60,115 +74,1478 @@ public class MyTreeMap implements MyMap {
     private class EntryIterator implements Iterator<MyMap.Entry> {
 
         private SimpleEntry nextEntry;
+        // First entry not to be returned, null to run to the end of the tree
+        private final SimpleEntry fence;
+        private final boolean descending;
         private int expectedModCount = modCount;
 
         private EntryIterator() {
-            this.nextEntry = minimal(root);
+            this(minimal(root), null, false);
+        }
+
+        private EntryIterator(SimpleEntry first, SimpleEntry fence, boolean descending) {
+            this.nextEntry = first;
+            this.fence = fence;
+            this.descending = descending;
         }
 
         @Override
         public boolean hasNext() {
-            return nextEntry != null;
+            return nextEntry != null && nextEntry != fence;
         }
 
         @Override
         public Entry next() {
-            if (this.nextEntry == null) {
+            if (this.nextEntry == null || this.nextEntry == fence) {
+                throw new NoSuchElementException();
+            }
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            SimpleEntry toReturn = nextEntry;
+            nextEntry = descending ? predecessor(nextEntry) : successor(nextEntry);
+            return toReturn;
+        }
+    }
+
+    // In-order walk like EntryIterator, reusable and without per-call allocation
+    private class EntryCursor implements Cursor {
+
+        private SimpleEntry curEntry;
+        private boolean started;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean advance() {
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            curEntry = started ? successor(curEntry) : minimal(root);
+            started = true;
+            return curEntry != null;
+        }
+
+        @Override
+        public Object key() {
+            return current().key;
+        }
+
+        @Override
+        public void reset() {
+            curEntry = null;
+            started = false;
+            expectedModCount = modCount;
+        }
+
+        @Override
+        public Object value() {
+            return current().value;
+        }
+
+        private SimpleEntry current() {
+            if (curEntry == null) {
                 throw new NoSuchElementException();
             }
+            return curEntry;
+        }
+    }
+
+    // Covers the entries from curEntry up to the fence. A split hands off the part below the
+    // subtree root that separates the range, so halves follow the tree's own balance
+    private class EntrySpliterator implements Spliterator<Entry> {
+
+        private SimpleEntry curEntry;
+        // First entry not to be covered, null to run to the end of the tree
+        private final SimpleEntry fence;
+        // 0 for the unsplit spliterator, 1 after splitting off a lower half, -1 for a lower half
+        private int side;
+        private int est;
+        private final int expectedModCount;
+
+        private EntrySpliterator(SimpleEntry origin, SimpleEntry fence, int side, int est, int expectedModCount) {
+            this.curEntry = origin;
+            this.fence = fence;
+            this.side = side;
+            this.est = est;
+            this.expectedModCount = expectedModCount;
+        }
+
+        @Override
+        public Spliterator<Entry> trySplit() {
+            SimpleEntry first = curEntry;
+            SimpleEntry split;
+            if (first == null || first == fence) {
+                split = null;
+            } else if (side == 0) {
+                split = root;
+            } else if (side > 0) {
+                split = first.right;
+            } else {
+                split = fence != null ? fence.left : null;
+            }
+            if (split == null || split == first || split == fence || compare(first.key, split.key) >= 0) {
+                return null;
+            }
+            side = 1;
+            return new EntrySpliterator(first, curEntry = split, -1, est >>>= 1, expectedModCount);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Entry> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            if (curEntry == null || curEntry == fence) {
+                return false;
+            }
+            SimpleEntry toAccept = curEntry;
+            curEntry = successor(curEntry);
+            if (est > 0) {
+                est--;
+            }
+            action.accept(toAccept);
             if (expectedModCount != modCount) {
                 throw new ConcurrentModificationException();
             }
-            SimpleEntry toReturn = nextEntry;
-            nextEntry = successor(nextEntry);
-            return toReturn;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Entry> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            SimpleEntry entry = curEntry;
+            curEntry = fence;
+            for (; entry != null && entry != fence; entry = successor(entry)) {
+                action.accept(entry);
+            }
+            est = 0;
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return est;
+        }
+
+        @Override
+        public int characteristics() {
+            return (side == 0 ? Spliterator.SIZED : 0)
+                    | Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.ORDERED;
+        }
+
+        @Override
+        public Comparator<? super Entry> getComparator() {
+            return (e1, e2) -> compare(e1.getKey(), e2.getKey());
+        }
+    }
+
+    // Live view of the keys between two optional bounds, iterators seek straight to the first bound
+    private class SubMap implements MyNavigableMap {
+
+        private final Object lo;
+        private final Object hi;
+        private final boolean fromStart;
+        private final boolean toEnd;
+        private final boolean loInclusive;
+        private final boolean hiInclusive;
+
+        private SubMap(boolean fromStart, Object lo, boolean loInclusive,
+                       boolean toEnd, Object hi, boolean hiInclusive) {
+            if (!fromStart && !toEnd && compare(lo, hi) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+        }
+
+        @Override
+        public Entry ceilingEntry(Object key) {
+            if (tooLow(key)) {
+                return absLowest();
+            }
+            SimpleEntry entry = getCeilingEntry(key);
+            return entry == null || tooHigh(entry.key) ? null : entry;
+        }
+
+        @Override
+        public Object ceilingKey(Object key) {
+            return keyOrNull(ceilingEntry(key));
+        }
+
+        @Override
+        public void clear() {
+            SimpleEntry curEntry;
+            while ((curEntry = absLowest()) != null) {
+                MyTreeMap.this.remove(curEntry.key);
+            }
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return inRange(key) && MyTreeMap.this.containsKey(key);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            Iterator<Entry> iterator = entryIterator();
+            while (iterator.hasNext()) {
+                if (Objects.equals(iterator.next().getValue(), value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Iterator descendingEntryIterator() {
+            return new EntryIterator(absHighest(), absLowFence(), true);
+        }
+
+        @Override
+        public Iterator entryIterator() {
+            return new EntryIterator(absLowest(), absHighFence(), false);
+        }
+
+        @Override
+        public Entry firstEntry() {
+            return absLowest();
+        }
+
+        @Override
+        public Object firstKey() {
+            return key(absLowest());
+        }
+
+        @Override
+        public Entry floorEntry(Object key) {
+            if (tooHigh(key)) {
+                return absHighest();
+            }
+            SimpleEntry entry = getFloorEntry(key);
+            return entry == null || tooLow(entry.key) ? null : entry;
+        }
+
+        @Override
+        public Object floorKey(Object key) {
+            return keyOrNull(floorEntry(key));
+        }
+
+        @Override
+        public Object get(Object key) {
+            return inRange(key) ? MyTreeMap.this.get(key) : null;
+        }
+
+        @Override
+        public MyNavigableMap headMap(Object toKey, boolean inclusive) {
+            checkInRange(toKey, inclusive);
+            return new SubMap(fromStart, lo, loInclusive, false, toKey, inclusive);
+        }
+
+        @Override
+        public Entry higherEntry(Object key) {
+            if (tooLow(key)) {
+                return absLowest();
+            }
+            SimpleEntry entry = getHigherEntry(key);
+            return entry == null || tooHigh(entry.key) ? null : entry;
+        }
+
+        @Override
+        public Object higherKey(Object key) {
+            return keyOrNull(higherEntry(key));
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return absLowest() == null;
+        }
+
+        @Override
+        public Entry lastEntry() {
+            return absHighest();
+        }
+
+        @Override
+        public Object lastKey() {
+            return key(absHighest());
+        }
+
+        @Override
+        public Entry lowerEntry(Object key) {
+            if (tooHigh(key)) {
+                return absHighest();
+            }
+            SimpleEntry entry = getLowerEntry(key);
+            return entry == null || tooLow(entry.key) ? null : entry;
+        }
+
+        @Override
+        public Object lowerKey(Object key) {
+            return keyOrNull(lowerEntry(key));
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            if (!inRange(key)) {
+                throw new IllegalArgumentException("Key out of range: " + key);
+            }
+            return MyTreeMap.this.put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return inRange(key) ? MyTreeMap.this.remove(key) : null;
+        }
+
+        @Override
+        public int size() {
+            int toReturn = 0;
+            Iterator iterator = entryIterator();
+            while (iterator.hasNext()) {
+                iterator.next();
+                toReturn++;
+            }
+            return toReturn;
+        }
+
+        @Override
+        public MyNavigableMap subMap(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive) {
+            checkInRange(fromKey, fromInclusive);
+            checkInRange(toKey, toInclusive);
+            return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive);
+        }
+
+        @Override
+        public MyNavigableMap tailMap(Object fromKey, boolean inclusive) {
+            checkInRange(fromKey, inclusive);
+            return new SubMap(false, fromKey, inclusive, toEnd, hi, hiInclusive);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder toReturn = new StringBuilder("{");
+            Iterator<Entry> iterator = entryIterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                toReturn.append(entry.getKey()).append('=').append(entry.getValue());
+                if (iterator.hasNext()) {
+                    toReturn.append(", ");
+                }
+            }
+            return toReturn.append('}').toString();
+        }
+
+        private SimpleEntry absHighest() {
+            SimpleEntry entry = toEnd ? maximal(root) : hiInclusive ? getFloorEntry(hi) : getLowerEntry(hi);
+            return entry == null || tooLow(entry.key) ? null : entry;
+        }
+
+        private SimpleEntry absHighFence() {
+            return toEnd ? null : hiInclusive ? getHigherEntry(hi) : getCeilingEntry(hi);
+        }
+
+        private SimpleEntry absLowest() {
+            SimpleEntry entry = fromStart ? minimal(root) : loInclusive ? getCeilingEntry(lo) : getHigherEntry(lo);
+            return entry == null || tooHigh(entry.key) ? null : entry;
+        }
+
+        private SimpleEntry absLowFence() {
+            return fromStart ? null : loInclusive ? getLowerEntry(lo) : getFloorEntry(lo);
+        }
+
+        // A bound of a nested view may coincide with an exclusive bound of this view
+        private void checkInRange(Object key, boolean inclusive) {
+            boolean inClosedRange = (fromStart || compare(key, lo) >= 0) && (toEnd || compare(hi, key) >= 0);
+            if (inclusive ? !inRange(key) : !inClosedRange) {
+                throw new IllegalArgumentException("Key out of range: " + key);
+            }
+        }
+
+        private boolean inRange(Object key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        private boolean tooHigh(Object key) {
+            if (toEnd) {
+                return false;
+            }
+            int cmp = compare(key, hi);
+            return cmp > 0 || cmp == 0 && !hiInclusive;
+        }
+
+        private boolean tooLow(Object key) {
+            if (fromStart) {
+                return false;
+            }
+            int cmp = compare(key, lo);
+            return cmp < 0 || cmp == 0 && !loInclusive;
+        }
+    }
+
+    // Builds a tree from entries supplied in ascending key order, reading each entry once
+    private class SortedLoader {
+
+        private final Iterator iterator;
+        private final Object[] keys;
+        private final Object[] values;
+        private int next;
+        private Object lastKey;
+
+        private SortedLoader(Iterator iterator, Object[] keys, Object[] values) {
+            this.iterator = iterator;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        // Complete levels above redLevel are black and the partial bottom level is red,
+        // which keeps every path at the same black height
+        private SimpleEntry build(int level, int lo, int hi, int redLevel) {
+            if (hi < lo) {
+                return null;
+            }
+            int mid = (lo + hi) >>> 1;
+            SimpleEntry left = lo < mid ? build(level + 1, lo, mid - 1, redLevel) : null;
+            SimpleEntry middle = nextEntry();
+            middle.color = level == redLevel ? RED : BLACK;
+            if (left != null) {
+                middle.left = left;
+                left.parent = middle;
+            }
+            if (mid < hi) {
+                SimpleEntry right = build(level + 1, mid + 1, hi, redLevel);
+                middle.right = right;
+                right.parent = middle;
+            }
+            return middle;
+        }
+
+        private SimpleEntry nextEntry() {
+            Object key;
+            Object value;
+            if (iterator != null) {
+                Entry entry = (Entry) iterator.next();
+                key = entry.getKey();
+                value = entry.getValue();
+            } else {
+                key = keys[next];
+                value = values == null ? null : values[next];
+                next++;
+            }
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            if (lastKey != null && compare(lastKey, key) >= 0) {
+                throw new IllegalArgumentException("Keys are not in strictly ascending order: "
+                        + lastKey + ", " + key);
+            }
+            lastKey = key;
+            return new SimpleEntry(key, value);
+        }
+    }
+
+    // A tree cut loose from the map with the number of black nodes on each of its paths, a red root
+    // not counted. Keeping the height at hand makes a join cost the difference of the two heights
+    private static final class Part {
+
+        private SimpleEntry root;
+        private int height;
+
+        private Part(SimpleEntry root, int height) {
+            this.root = root;
+            this.height = height;
+        }
+    }
+
+    // Result of a split: the keys below and above the split key and the entry holding it, if any
+    private static final class Split {
+
+        private Part left;
+        private final SimpleEntry middle;
+        private Part right;
+        // Keys compared on the way down. The caller adds them to the stats, so splits running on
+        // ForkJoin workers do not write the counters
+        private int comparisons;
+
+        private Split(Part left, SimpleEntry middle, Part right) {
+            this.left = left;
+            this.middle = middle;
+            this.right = right;
+        }
+    }
+
+    private enum SetOperation { UNION, INTERSECTION, DIFFERENCE }
+
+    // Splits a part of this map by the root key of a subtree of the other map, solves both sides and
+    // joins them back. The other map is only read and the sides share no nodes, so the left side can
+    // run in parallel while depth allows it. Comparisons are summed in an adder and added to the
+    // stats once the tasks are done
+    private class SetOperationTask extends RecursiveTask<Part> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SetOperation operation;
+        private final Part tree;
+        private final SimpleEntry other;
+        private final int depth;
+        private final LongAdder common;
+        private final LongAdder comparisons;
+
+        private SetOperationTask(SetOperation operation, Part tree, SimpleEntry other, int depth,
+                                 LongAdder common, LongAdder comparisons) {
+            this.operation = operation;
+            this.tree = tree;
+            this.other = other;
+            this.depth = depth;
+            this.common = common;
+            this.comparisons = comparisons;
+        }
+
+        @Override
+        protected Part compute() {
+            return apply(tree, other, depth);
+        }
+
+        private Part apply(Part tree, SimpleEntry other, int depth) {
+            if (other == null) {
+                return operation == SetOperation.INTERSECTION ? new Part(null, 0) : tree;
+            }
+            if (tree.root == null) {
+                return operation == SetOperation.UNION ? copyOf(other) : tree;
+            }
+            Split parts = split(tree, other.key);
+            comparisons.add(parts.comparisons);
+            if (parts.middle != null) {
+                common.increment();
+            }
+            Part left;
+            Part right;
+            if (depth > 0 && other.left != null && other.right != null) {
+                SetOperationTask leftTask = new SetOperationTask(operation, parts.left, other.left, depth - 1,
+                        common, comparisons);
+                leftTask.fork();
+                right = apply(parts.right, other.right, depth - 1);
+                left = leftTask.join();
+            } else {
+                left = apply(parts.left, other.left, depth);
+                right = apply(parts.right, other.right, depth);
+            }
+            switch (operation) {
+                case UNION:
+                    SimpleEntry middle = parts.middle;
+                    if (middle == null) {
+                        middle = new SimpleEntry(other.key, other.value);
+                    } else {
+                        middle.value = other.value;
+                    }
+                    return MyTreeMap.join(left, middle, right);
+                case INTERSECTION:
+                    return parts.middle == null
+                            ? MyTreeMap.join(left, right) : MyTreeMap.join(left, parts.middle, right);
+                default:
+                    return MyTreeMap.join(left, right);
+            }
+        }
+    }
+
+    private SimpleEntry root;
+    private Comparator comparator;
+    private int size;
+    private int modCount;
+    // Null unless enableStats() was called, so disabled instrumentation costs one field read
+    private MyTreeMapStats stats;
+    // Last entry put and its successor at that time. A new key between the two hangs straight below
+    // one of them, which makes appends amortized O(1); only valid while modCount is unchanged
+    private SimpleEntry finger;
+    private SimpleEntry fingerNext;
+    private int fingerModCount;
+
+    public MyTreeMap() {
+        this(null);
+    }
+
+    public MyTreeMap(Comparator comparator) {
+        this.comparator = comparator;
+    }
+
+    // Linear-time bulk load of keys sorted in strictly ascending order, values may be null
+    public static MyTreeMap fromSorted(Object[] keys, Object[] values, Comparator comparator) {
+        if (values != null && values.length != keys.length) {
+            throw new IllegalArgumentException("Keys and values differ in length");
+        }
+        MyTreeMap toReturn = new MyTreeMap(comparator);
+        toReturn.loadSorted(toReturn.new SortedLoader(null, keys, values), keys.length);
+        return toReturn;
+    }
+
+    // Linear-time bulk load of size entries supplied in strictly ascending key order
+    public static MyTreeMap fromSorted(Iterator entries, int size, Comparator comparator) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Illegal size: " + size);
+        }
+        MyTreeMap toReturn = new MyTreeMap(comparator);
+        toReturn.loadSorted(toReturn.new SortedLoader(entries, null, null), size);
+        return toReturn;
+    }
+
+    @Override
+    public Entry ceilingEntry(Object key) {
+        return getCeilingEntry(key);
+    }
+
+    @Override
+    public Object ceilingKey(Object key) {
+        return keyOrNull(getCeilingEntry(key));
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findEntry(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Iterator<Entry> iterator = new EntryIterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Object compute(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        SimpleEntry node = findEntryOrParent(key);
+        boolean found = holds(node, key);
+        int expectedModCount = modCount;
+        Object newValue = remappingFunction.apply(key, found ? node.value : null);
+        if (expectedModCount != modCount) {
+            throw new ConcurrentModificationException();
+        }
+        store(node, found, key, newValue);
+        return newValue;
+    }
+
+    @Override
+    public Object computeIfAbsent(Object key, Function<Object, Object> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        SimpleEntry node = findEntryOrParent(key);
+        boolean found = holds(node, key);
+        if (found && node.value != null) {
+            return node.value;
+        }
+        int expectedModCount = modCount;
+        Object value = mappingFunction.apply(key);
+        if (expectedModCount != modCount) {
+            throw new ConcurrentModificationException();
+        }
+        if (value != null) {
+            store(node, found, key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Object computeIfPresent(Object key, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        SimpleEntry node = findEntryOrParent(key);
+        if (!holds(node, key) || node.value == null) {
+            return null;
+        }
+        int expectedModCount = modCount;
+        Object newValue = remappingFunction.apply(key, node.value);
+        if (expectedModCount != modCount) {
+            throw new ConcurrentModificationException();
+        }
+        store(node, true, key, newValue);
+        return newValue;
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new EntryCursor();
+    }
+
+    @Override
+    public Iterator descendingEntryIterator() {
+        return new EntryIterator(maximal(root), null, true);
+    }
+
+    // Removes the keys that are also in other, which is only read. Takes O(m log(n / m + 1)) for m
+    // entries in the smaller map, large maps fork the work onto the common ForkJoinPool
+    public void difference(MyTreeMap other) {
+        applySetOperation(other, SetOperation.DIFFERENCE);
+    }
+
+    public void disableStats() {
+        if (stats != null) {
+            stats.close();
+            stats = null;
+        }
+    }
+
+    // Starts counting rotations, color flips and comparisons and, when the jfr/ sources are
+    // compiled in, publishes them as JFR events; register the returned object to expose it over JMX
+    public MyTreeMapStats enableStats() {
+        if (stats == null) {
+            stats = new MyTreeMapStats(this);
+        }
+        return stats;
+    }
+
+    @Override
+    public Iterator entryIterator() {
+        return new EntryIterator();
+    }
+
+    @Override
+    public Entry firstEntry() {
+        return minimal(root);
+    }
+
+    @Override
+    public Object firstKey() {
+        return key(minimal(root));
+    }
+
+    @Override
+    public Entry floorEntry(Object key) {
+        return getFloorEntry(key);
+    }
+
+    @Override
+    public Object floorKey(Object key) {
+        return keyOrNull(getFloorEntry(key));
+    }
+
+    @Override
+    public void forEach(BiConsumer<Object, Object> action) {
+        int expectedModCount = modCount;
+        for (SimpleEntry curEntry = minimal(root); curEntry != null; curEntry = successor(curEntry)) {
+            action.accept(curEntry.key, curEntry.value);
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        SimpleEntry entry = findEntry(key);
+        return entry == null ? null : entry.value;
+    }
+
+    // Sorts the batch and answers it in one descent: at each node the sorted keys divide into those
+    // going left, those equal to the node and those going right, so a node on the way is visited
+    // once for the whole batch instead of once per key
+    @Override
+    public void getAll(Object[] keys, Object[] values) {
+        BulkTasks.checkBatch(keys, values, null);
+        int[] order = sortedOrder(keys);
+        SimpleEntry[] found = new SimpleEntry[order.length];
+        findAll(root, keys, order, 0, order.length, found);
+        if (stats != null) {
+            stats.operations += order.length;
+        }
+        Arrays.fill(values, 0, keys.length, null);
+        for (int i = 0; i < order.length; i++) {
+            if (found[i] != null) {
+                values[order[i]] = found[i].value;
+            }
+        }
+    }
+
+    @Override
+    public MyNavigableMap headMap(Object toKey, boolean inclusive) {
+        return new SubMap(true, null, false, false, toKey, inclusive);
+    }
+
+    @Override
+    public Entry higherEntry(Object key) {
+        return getHigherEntry(key);
+    }
+
+    @Override
+    public Object higherKey(Object key) {
+        return keyOrNull(getHigherEntry(key));
+    }
+
+    // Keeps only the keys that are also in other, with the values of this map
+    public void intersection(MyTreeMap other) {
+        applySetOperation(other, SetOperation.INTERSECTION);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Moves every entry of right, whose keys must all follow the keys of this map, into this map
+    // in O(log n) and leaves right empty
+    public void join(MyTreeMap right) {
+        checkOrdering(right);
+        if (right.root == null) {
+            return;
+        }
+        if (right == this || root != null && compare(maximal(root).key, minimal(right.root).key) >= 0) {
+            throw new IllegalArgumentException("Keys of the right map do not follow the keys of this map");
+        }
+        Split first = splitFirst(new Part(right.root, right.blackHeight()));
+        setTree(join(new Part(root, blackHeight()), first.middle, first.right), size + right.size);
+        right.setTree(new Part(null, 0), 0);
+    }
+
+    @Override
+    public Entry lastEntry() {
+        return maximal(root);
+    }
+
+    @Override
+    public Object lastKey() {
+        return key(maximal(root));
+    }
+
+    @Override
+    public Entry lowerEntry(Object key) {
+        return getLowerEntry(key);
+    }
+
+    @Override
+    public Object lowerKey(Object key) {
+        return keyOrNull(getLowerEntry(key));
+    }
+
+    @Override
+    public Object merge(Object key, Object value, BiFunction<Object, Object, Object> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        SimpleEntry node = findEntryOrParent(key);
+        boolean found = holds(node, key);
+        Object newValue = value;
+        if (found && node.value != null) {
+            int expectedModCount = modCount;
+            newValue = remappingFunction.apply(node.value, value);
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+        store(node, found, key, newValue);
+        return newValue;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        SimpleEntry parent = fingerParent(key);
+        if (parent != null) {
+            if (stats != null) {
+                stats.operations++;
+            }
+            // The successor of the new entry is that of the old finger
+            finger = insertLeaf(parent, key, value);
+            fingerModCount = modCount;
+            return null;
+        }
+        // Updates must not restructure the tree, so the top-down insert runs only for new keys
+        SimpleEntry curEntry = findEntry(key);
+        if (curEntry != null) {
+            Object toReturn = curEntry.value;
+            curEntry.value = value;
+            return toReturn;
+        }
+        curEntry = findInsertPoint(key);
+        if (curEntry == null) {
+            root = new SimpleEntry(key, value);
+            root.color = BLACK;
+            size++;
+            modCount++;
+            setFinger(root);
+            return null;
+        }
+        SimpleEntry toAdd = new SimpleEntry(key, value);
+        toAdd.parent = curEntry;
+        if (compare(curEntry.key, key) > 0) {
+            curEntry.left = toAdd;
+        } else {
+            curEntry.right = toAdd;
+        }
+        size++;
+        modCount++;
+        fixAfterInsert(toAdd);
+        setFinger(toAdd);
+        return null;
+    }
+
+    // Starts from hint, an entry of this map such as one returned by floorEntry, and climbs only
+    // until an ancestor on the far side bounds the key; the descent from there repairs colors
+    // bottom-up. Checking that hint is still in the map climbs to the root without comparisons,
+    // an entry that is not falls back to put(key, value)
+    public Object put(Object key, Object value, Entry hint) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (!(hint instanceof SimpleEntry) || !isAttached((SimpleEntry) hint) || fingerParent(key) != null) {
+            return put(key, value);
+        }
+        if (stats != null) {
+            stats.operations++;
+        }
+        SimpleEntry curEntry = (SimpleEntry) hint;
+        int cmp = compare(key, curEntry.key);
+        while (cmp != 0 && curEntry.parent != null) {
+            SimpleEntry parent = curEntry.parent;
+            // Only a parent on the key's side can bound it, one on the other side is passed by
+            if (cmp > 0 == (curEntry == parent.left)) {
+                int parentCmp = compare(key, parent.key);
+                if (parentCmp != 0 && parentCmp > 0 != cmp > 0) {
+                    break;
+                }
+                cmp = parentCmp;
+            }
+            curEntry = parent;
+        }
+        SimpleEntry parent = curEntry;
+        while (cmp != 0) {
+            SimpleEntry next = cmp < 0 ? parent.left : parent.right;
+            if (next == null) {
+                setFinger(insertLeaf(parent, key, value));
+                return null;
+            }
+            parent = next;
+            cmp = compare(key, parent.key);
+        }
+        Object toReturn = parent.value;
+        parent.value = value;
+        return toReturn;
+    }
+
+    // Updates the keys already present in one descent like getAll, then inserts the new ones in key
+    // order, so consecutive inserts share the upper part of their paths
+    @Override
+    public void putAll(Object[] keys, Object[] values, Object[] previous) {
+        BulkTasks.checkBatch(keys, values, previous);
+        int[] order = sortedOrder(keys);
+        if (order.length < keys.length) {
+            throw new NullPointerException();
+        }
+        SimpleEntry[] found = new SimpleEntry[order.length];
+        findAll(root, keys, order, 0, order.length, found);
+        Object[] newKeys = new Object[order.length];
+        Object[] newValues = new Object[order.length];
+        int newCount = 0;
+        if (stats != null) {
+            stats.operations += order.length;
+        }
+        for (int first = 0, next; first < order.length; first = next) {
+            // Equal keys are adjacent and in batch order, each one replaces the value of the one before
+            Object curValue = found[first] == null ? null : found[first].value;
+            next = first;
+            do {
+                if (previous != null) {
+                    previous[order[next]] = curValue;
+                }
+                curValue = values[order[next]];
+                next++;
+            } while (next < order.length && compare(keys[order[next]], keys[order[first]]) == 0);
+            if (found[first] != null) {
+                found[first].value = curValue;
+            } else {
+                newKeys[newCount] = keys[order[first]];
+                newValues[newCount++] = curValue;
+            }
+        }
+        for (int i = 0; i < newCount; i++) {
+            SimpleEntry parent = fingerParent(newKeys[i]);
+            if (parent != null) {
+                finger = insertLeaf(parent, newKeys[i], newValues[i]);
+                fingerModCount = modCount;
+            } else {
+                setFinger(insertLeaf(findParent(newKeys[i]), newKeys[i], newValues[i]));
+            }
+        }
+    }
+
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        SimpleEntry node = findEntryOrParent(key);
+        boolean found = holds(node, key);
+        if (found && node.value != null) {
+            return node.value;
+        }
+        // Unlike store(), a null value is put as well and never removes the mapping
+        if (found) {
+            node.value = value;
+        } else {
+            insertLeaf(node, key, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (key == null || !containsKey(key)) {
+            return null;
+        }
+        return deleteEntry(key);
+    }
+
+    // Finds the keys in one descent like getAll and deletes the ones present in key order
+    @Override
+    public void removeAll(Object[] keys, Object[] previous) {
+        BulkTasks.checkBatch(keys, null, previous);
+        int[] order = sortedOrder(keys);
+        SimpleEntry[] found = new SimpleEntry[order.length];
+        findAll(root, keys, order, 0, order.length, found);
+        if (stats != null) {
+            stats.operations += order.length;
+        }
+        if (previous != null) {
+            // Read before deleting, as a delete may move a successor's contents into another node
+            Arrays.fill(previous, 0, keys.length, null);
+            for (int i = 0; i < order.length; i++) {
+                if (found[i] != null && (i == 0 || found[i - 1] != found[i])) {
+                    previous[order[i]] = found[i].value;
+                }
+            }
+        }
+        for (int i = 0; i < order.length; i++) {
+            // Only the first of equal keys removes anything
+            if (found[i] != null && (i == 0 || found[i - 1] != found[i])) {
+                deleteEntry(keys[order[i]]);
+            }
+        }
+    }
+
+
+    // Cuts the range out with two splits and joins what is left, O(log n) plus a walk over the
+    // removed entries to count them
+    public void removeRange(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive) {
+        int cmp = compare(fromKey, toKey);
+        if (cmp > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        if (root == null || cmp == 0 && !(fromInclusive && toInclusive)) {
+            return;
+        }
+        Split low = split(new Part(root, blackHeight()), fromKey);
+        Split high = split(low.right, toKey);
+        countComparisons(low.comparisons + high.comparisons);
+        int removed = count(high.left.root);
+        Part lower = low.left;
+        if (low.middle != null) {
+            if (fromInclusive) {
+                removed++;
+            } else {
+                lower = join(lower, low.middle, new Part(null, 0));
+            }
+        }
+        Part upper = high.right;
+        if (high.middle != null) {
+            if (toInclusive) {
+                removed++;
+            } else {
+                upper = join(new Part(null, 0), high.middle, upper);
+            }
+        }
+        setTree(join(lower, upper), size - removed);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Moves the entries with keys greater than or equal to key into a new map. The split is
+    // O(log n); sizing the halves walks them in step, which costs the size of the smaller one
+    public MyTreeMap split(Object key) {
+        MyTreeMap toReturn = new MyTreeMap(comparator);
+        if (root == null) {
+            return toReturn;
+        }
+        Split parts = split(new Part(root, blackHeight()), key);
+        countComparisons(parts.comparisons);
+        Part upper = parts.middle == null ? parts.right : join(new Part(null, 0), parts.middle, parts.right);
+        int lowerSize = sizeOfFirst(parts.left.root, upper.root, size);
+        toReturn.setTree(upper, size - lowerSize);
+        setTree(parts.left, lowerSize);
+        return toReturn;
+    }
+
+    @Override
+    public Spliterator<Entry> spliterator() {
+        return new EntrySpliterator(minimal(root), null, 0, size, modCount);
+    }
+
+    @Override
+    public MyNavigableMap subMap(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive) {
+        return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive);
+    }
+
+    @Override
+    public MyNavigableMap tailMap(Object fromKey, boolean inclusive) {
+        return new SubMap(false, fromKey, inclusive, true, null, false);
+    }
+
+    // Adds the entries of other, which is only read; its values replace those of equal keys
+    public void union(MyTreeMap other) {
+        applySetOperation(other, SetOperation.UNION);
+    }
+
+    // Keys and values must be String, byte[], Integer, Long or null; reopen with MappedTreeMap.open
+    public void writeSnapshot(Path path) throws IOException {
+        MappedSnapshot.writeSorted(path, this);
+    }
+
+    int blackHeight() {
+        return blackHeight(root);
+    }
+
+    int height() {
+        return height(root);
+    }
+
+    // Divides the keys roughly in half, a split point that costs nothing to find
+    Object rootKey() {
+        return root == null ? null : root.key;
+    }
+
+    MyTreeMapStats stats() {
+        return stats;
+    }
+
+    private void applySetOperation(MyTreeMap other, SetOperation operation) {
+        checkOrdering(other);
+        if (other == this) {
+            if (operation == SetOperation.DIFFERENCE) {
+                clear();
+            }
+            return;
+        }
+        LongAdder common = new LongAdder();
+        LongAdder comparisons = new LongAdder();
+        int depth = (long) size + other.size < PARALLEL_THRESHOLD ? 0 : FORK_DEPTH;
+        Part result = new SetOperationTask(operation, new Part(root, blackHeight()), other.root, depth,
+                common, comparisons).invoke();
+        countComparisons(comparisons.sum());
+        int commonCount = common.intValue();
+        switch (operation) {
+            case UNION:
+                setTree(result, size + other.size - commonCount);
+                break;
+            case INTERSECTION:
+                setTree(result, commonCount);
+                break;
+            default:
+                setTree(result, size - commonCount);
+        }
+    }
+
+    // Split and join compare keys of both maps in this map's order, so the orders must agree
+    private void checkOrdering(MyTreeMap other) {
+        if (!Objects.equals(comparator, other.comparator)) {
+            throw new IllegalArgumentException("Maps are ordered differently");
+        }
+    }
+
+    // Installs the result of splits and joins as the whole tree
+    private void setTree(Part tree, int size) {
+        root = tree.root;
+        if (root != null) {
+            root.parent = null;
+            root.color = BLACK;
+        }
+        this.size = size;
+        modCount++;
+    }
+
+    // Cuts a tree into the keys below and above key and the entry holding it, joining the subtrees
+    // left hanging on the way back up. The joins climb in height, so together they cost O(log n)
+    private Split split(Part tree, Object key) {
+        SimpleEntry top = tree.root;
+        if (top == null) {
+            return new Split(tree, null, new Part(null, 0));
+        }
+        int childHeight = top.color == BLACK ? tree.height - 1 : tree.height;
+        Part left = new Part(detach(top.left), childHeight);
+        Part right = new Part(detach(top.right), childHeight);
+        int cmp = compareKeys(key, top.key);
+        Split toReturn;
+        if (cmp == 0) {
+            toReturn = new Split(left, top, right);
+        } else if (cmp < 0) {
+            toReturn = split(left, key);
+            toReturn.right = join(toReturn.right, top, right);
+        } else {
+            toReturn = split(right, key);
+            toReturn.left = join(left, top, toReturn.left);
+        }
+        toReturn.comparisons++;
+        return toReturn;
+    }
+
+    // Split off the least entry of a non-empty tree, without comparing keys
+    private static Split splitFirst(Part tree) {
+        SimpleEntry top = tree.root;
+        int childHeight = top.color == BLACK ? tree.height - 1 : tree.height;
+        Part right = new Part(detach(top.right), childHeight);
+        if (top.left == null) {
+            return new Split(new Part(null, 0), top, right);
+        }
+        Split toReturn = splitFirst(new Part(detach(top.left), childHeight));
+        toReturn.right = join(toReturn.right, top, right);
+        return toReturn;
+    }
+
+    // Joins two trees around middle, whose key lies between theirs. Middle goes in red where the
+    // black heights meet, on the right spine of a taller left tree or the left spine of a taller
+    // right one, and a red parent is then repaired bottom-up
+    private static Part join(Part left, SimpleEntry middle, Part right) {
+        blacken(left);
+        blacken(right);
+        middle.parent = null;
+        if (left.height == right.height) {
+            middle.color = BLACK;
+            link(middle, left.root, right.root);
+            return new Part(middle, left.height + 1);
+        }
+        middle.color = RED;
+        boolean leftTaller = left.height > right.height;
+        Part toReturn = leftTaller ? left : right;
+        int targetHeight = leftTaller ? right.height : left.height;
+        int curHeight = toReturn.height;
+        SimpleEntry parent = null;
+        SimpleEntry curEntry = toReturn.root;
+        while (curEntry != null && (curEntry.color == RED || curHeight != targetHeight)) {
+            if (curEntry.color == BLACK) {
+                curHeight--;
+            }
+            parent = curEntry;
+            curEntry = leftTaller ? curEntry.right : curEntry.left;
+        }
+        if (leftTaller) {
+            link(middle, curEntry, right.root);
+            parent.right = middle;
+        } else {
+            link(middle, left.root, curEntry);
+            parent.left = middle;
+        }
+        middle.parent = parent;
+        SimpleEntry top = fixRedRed(middle);
+        // A conflict that reached the root is only solved by blackening it, one level taller
+        if (top.color == RED && (isRed(top.left) || isRed(top.right))) {
+            top.color = BLACK;
+            toReturn.height++;
+        }
+        toReturn.root = top;
+        return toReturn;
+    }
+
+    // Join of two trees without a middle entry, which is borrowed from the right one
+    private static Part join(Part left, Part right) {
+        if (right.root == null) {
+            return left;
+        }
+        if (left.root == null) {
+            return right;
+        }
+        Split first = splitFirst(right);
+        return join(left, first.middle, first.right);
+    }
+
+    // Like fixAfterLeafInsert on a cut loose tree, returns its root. Stops below the root, so a
+    // red root can be left with a red child
+    private static SimpleEntry fixRedRed(SimpleEntry toCheck) {
+        while (toCheck.parent != null && toCheck.parent.color == RED && toCheck.parent.parent != null) {
+            SimpleEntry parent = toCheck.parent;
+            SimpleEntry grandParent = parent.parent;
+            boolean leftSide = grandParent.left == parent;
+            SimpleEntry uncle = leftSide ? grandParent.right : grandParent.left;
+            if (isRed(uncle)) {
+                parent.color = BLACK;
+                uncle.color = BLACK;
+                grandParent.color = RED;
+                toCheck = grandParent;
+                continue;
+            }
+            if (leftSide && parent.right == toCheck) {
+                rotateLeft(parent);
+                parent = toCheck;
+            } else if (!leftSide && parent.left == toCheck) {
+                rotateRight(parent);
+                parent = toCheck;
+            }
+            if (leftSide) {
+                rotateRight(grandParent);
+            } else {
+                rotateLeft(grandParent);
+            }
+            parent.color = BLACK;
+            grandParent.color = RED;
+            toCheck = parent;
+            break;
+        }
+        while (toCheck.parent != null) {
+            toCheck = toCheck.parent;
+        }
+        return toCheck;
+    }
+
+    // roL and roR for cut loose trees: no root field to update and no statistics, which would be
+    // shared by the tasks of a parallel set operation
+    private static void rotateLeft(SimpleEntry top) {
+        SimpleEntry pivot = top.right;
+        replaceChild(top, pivot);
+        top.right = pivot.left;
+        if (pivot.left != null) {
+            pivot.left.parent = top;
+        }
+        pivot.left = top;
+        top.parent = pivot;
+    }
+
+    private static void rotateRight(SimpleEntry top) {
+        SimpleEntry pivot = top.left;
+        replaceChild(top, pivot);
+        top.left = pivot.right;
+        if (pivot.right != null) {
+            pivot.right.parent = top;
+        }
+        pivot.right = top;
+        top.parent = pivot;
+    }
+
+    private static void replaceChild(SimpleEntry child, SimpleEntry replacement) {
+        SimpleEntry parent = child.parent;
+        replacement.parent = parent;
+        if (parent != null) {
+            if (parent.left == child) {
+                parent.left = replacement;
+            } else {
+                parent.right = replacement;
+            }
         }
     }
 
-    private SimpleEntry root;
-    private Comparator comparator;
-    private int size;
-    private int modCount;
+    private static void link(SimpleEntry parent, SimpleEntry left, SimpleEntry right) {
+        parent.left = left;
+        parent.right = right;
+        if (left != null) {
+            left.parent = parent;
+        }
+        if (right != null) {
+            right.parent = parent;
+        }
+    }
 
-    public MyTreeMap() {
-        this(null);
+    private static void blacken(Part tree) {
+        if (tree.root != null && tree.root.color == RED) {
+            tree.root.color = BLACK;
+            tree.height++;
+        }
     }
 
-    public MyTreeMap(Comparator comparator) {
-        this.comparator = comparator;
+    private static SimpleEntry detach(SimpleEntry entry) {
+        if (entry != null) {
+            entry.parent = null;
+        }
+        return entry;
     }
 
-    @Override
-    public void clear() {
-        root = null;
-        size = 0;
+    private static boolean isRed(SimpleEntry entry) {
+        return entry != null && entry.color == RED;
     }
 
-    @Override
-    public boolean containsKey(Object key) {
-        return findEntry(key) != null;
+    // Structural copy of a subtree of another map, colors included
+    private static Part copyOf(SimpleEntry other) {
+        SimpleEntry toReturn = copyTree(other);
+        return new Part(toReturn, blackHeight(toReturn));
     }
 
-    @Override
-    public boolean containsValue(Object value) {
-        Iterator<Entry> iterator = new EntryIterator();
-        while (iterator.hasNext()) {
-            if (iterator.next().getValue().equals(value)) {
-                return true;
-            }
+    private static SimpleEntry copyTree(SimpleEntry other) {
+        if (other == null) {
+            return null;
         }
-        return false;
+        SimpleEntry toReturn = new SimpleEntry(other.key, other.value);
+        toReturn.color = other.color;
+        link(toReturn, copyTree(other.left), copyTree(other.right));
+        return toReturn;
     }
 
-    @Override
-    public Iterator entryIterator() {
-        return new EntryIterator();
+    private static int blackHeight(SimpleEntry root) {
+        int toReturn = 0;
+        for (SimpleEntry curEntry = root; curEntry != null; curEntry = curEntry.left) {
+            if (curEntry.color == BLACK) {
+                toReturn++;
+            }
+        }
+        return toReturn;
     }
 
-    @Override
-    public Object get(Object key) {
-        SimpleEntry entry = findEntry(key);
-        return entry == null ? null : entry.value;
+    private static int count(SimpleEntry root) {
+        return root == null ? 0 : 1 + count(root.left) + count(root.right);
     }
 
-    @Override
-    public boolean isEmpty() {
-        return size == 0;
+    // Walks two cut loose trees in step until the smaller one ends, then derives the size of the
+    // first from the total
+    private static int sizeOfFirst(SimpleEntry first, SimpleEntry second, int total) {
+        SimpleEntry curFirst = minimal(first);
+        SimpleEntry curSecond = minimal(second);
+        int steps = 0;
+        while (curFirst != null && curSecond != null) {
+            curFirst = successor(curFirst);
+            curSecond = successor(curSecond);
+            steps++;
+        }
+        return curFirst == null ? steps : total - steps;
     }
 
-    @Override
-    public Object put(Object key, Object value) {
-        SimpleEntry curEntry = findInsertPoint(key);
-        if (curEntry == null) {
-            root = new SimpleEntry(key, value);
-            root.color = BLACK;
-            size++;
-            modCount++;
-            return null;
-        }
-        if (curEntry.key.equals(key)) {
-            Object toReturn = curEntry.value;
-            curEntry.value = value;
-            return toReturn;
+    private void changeColor(SimpleEntry entry) {
+        if (stats != null) {
+            stats.colorFlips++;
         }
-        SimpleEntry toAdd = new SimpleEntry(key, value);
-        toAdd.parent = curEntry;
-        if (compare(curEntry.key, key) > 0) {
-            curEntry.left = toAdd;
-        } else {
-            curEntry.right = toAdd;
+        entry.color = !entry.color;
+    }
+
+    private static boolean holds(SimpleEntry node, Object key) {
+        return node != null && node.key.equals(key);
+    }
+
+    private int compare(Object o1, Object o2) {
+        if (stats != null) {
+            stats.comparisons++;
         }
-        size++;
-        modCount++;
-        fixAfterInsert(toAdd);
-        return null;
+        return compareKeys(o1, o2);
     }
 
-    @Override
-    public Object remove(Object key) {
-        if (key == null || !containsKey(key)) {
-            return null;
+    // Uncounted, for code that may run off the map's own thread
+    private int compareKeys(Object o1, Object o2) {
+        return this.comparator == null
+                ? ((Comparable) o1).compareTo(o2) : this.comparator.compare(o1, o2);
+    }
+
+    private void countComparisons(long count) {
+        if (stats != null) {
+            stats.comparisons += count;
         }
+    }
+
+    // The key is known to be present
+    private Object deleteEntry(Object key) {
         SimpleEntry toRemove = findDelPoint(root, key);
         Object toReturn = toRemove.value;
         size--;
@@ -211,21 +1588,6 @@ public class MyTreeMap implements MyMap {
         return toReturn;
     }
 
-
-    @Override
-    public int size() {
-        return size;
-    }
-
-    private void changeColor(SimpleEntry entry) {
-        entry.color = !entry.color;
-    }
-
-    private int compare(Object o1, Object o2) {
-        return this.comparator == null
-                ? ((Comparable) o1).compareTo(o2) : this.comparator.compare(o1, o2);
-    }
-
     private SimpleEntry findDelPoint(SimpleEntry curEntry, Object key) {
         while (!curEntry.key.equals(key)) {
 //            System.out.println(curEntry.value);
@@ -249,13 +1611,107 @@ public class MyTreeMap implements MyMap {
         return curEntry;
     }
 
+    // Every keyed get, containsKey, put and remove starts with exactly one call to this
     private SimpleEntry findEntry(Object key) {
+        if (stats != null) {
+            stats.operations++;
+        }
+        return (SimpleEntry) findEntry(key, Integer.MAX_VALUE);
+    }
+
+    // The compute family descends once: returns the entry holding the key or, when there is none,
+    // the node a new entry would hang from, null for an empty tree. Counted as one operation
+    private SimpleEntry findEntryOrParent(Object key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (stats != null) {
+            stats.operations++;
+        }
+        SimpleEntry curEntry = root;
+        SimpleEntry parent = null;
+        while (curEntry != null && !curEntry.key.equals(key)) {
+            parent = curEntry;
+            curEntry = compare(curEntry.key, key) > 0 ? curEntry.left : curEntry.right;
+        }
+        return curEntry == null ? parent : curEntry;
+    }
+
+    // Applies a computed value to the result of findEntryOrParent; null removes the entry and a new
+    // key hangs off the node found, then colors are repaired bottom-up instead of a second descent
+    private void store(SimpleEntry node, boolean found, Object key, Object value) {
+        if (found) {
+            if (value == null) {
+                deleteEntry(key);
+            } else {
+                node.value = value;
+            }
+            return;
+        }
+        if (value != null) {
+            insertLeaf(node, key, value);
+        }
+    }
+
+    // Hangs a new entry off the parent found by a descent, null for an empty tree
+    private SimpleEntry insertLeaf(SimpleEntry parent, Object key, Object value) {
+        SimpleEntry toAdd = new SimpleEntry(key, value);
+        size++;
+        modCount++;
+        if (parent == null) {
+            root = toAdd;
+            root.color = BLACK;
+            return toAdd;
+        }
+        toAdd.parent = parent;
+        if (compare(parent.key, key) > 0) {
+            parent.left = toAdd;
+        } else {
+            parent.right = toAdd;
+        }
+        fixAfterLeafInsert(toAdd);
+        return toAdd;
+    }
+
+    // Parent for a key strictly between the finger and its successor: the finger if its right
+    // slot is free, otherwise the successor, the least entry of that right subtree. Null if the
+    // key falls elsewhere or the finger is stale
+    private SimpleEntry fingerParent(Object key) {
+        if (finger == null || fingerModCount != modCount || key == null || compare(key, finger.key) <= 0
+                || fingerNext != null && compare(key, fingerNext.key) >= 0) {
+            return null;
+        }
+        return finger.right == null ? finger : fingerNext;
+    }
+
+    private void setFinger(SimpleEntry entry) {
+        finger = entry;
+        fingerNext = successor(entry);
+        fingerModCount = modCount;
+    }
+
+    // An entry removed from the map, or taken from another one, does not climb to this root
+    private boolean isAttached(SimpleEntry entry) {
+        SimpleEntry curEntry = entry;
+        while (curEntry.parent != null) {
+            if (curEntry.parent.left != curEntry && curEntry.parent.right != curEntry) {
+                return false;
+            }
+            curEntry = curEntry.parent;
+        }
+        return curEntry == root;
+    }
+
+    // The bounded lookups below serve optimistic readers of MyConcurrentTreeMap. A concurrent
+    // rotation may leave the links briefly cyclic, so a walk longer than maxSteps gives up.
+    Entry findEntry(Object key, int maxSteps) {
         if (key == null) {
             return null;
         }
         SimpleEntry curElement = root;
         while (curElement != null && !curElement.key.equals(key)) {
-            if (((Comparable) curElement.key).compareTo(key) > 0) {
+            checkSteps(maxSteps--);
+            if (compare(curElement.key, key) > 0) {
                 curElement = curElement.left;
             } else {
                 curElement = curElement.right;
@@ -264,6 +1720,97 @@ public class MyTreeMap implements MyMap {
         return curElement;
     }
 
+    // Returns the entry with the least key greater than key, or the first entry for a null key
+    Entry higherEntry(Object key, int maxSteps) {
+        SimpleEntry curEntry = root;
+        SimpleEntry toReturn = null;
+        while (curEntry != null) {
+            checkSteps(maxSteps--);
+            if (key == null || compare(curEntry.key, key) > 0) {
+                toReturn = curEntry;
+                curEntry = curEntry.left;
+            } else {
+                curEntry = curEntry.right;
+            }
+        }
+        return toReturn;
+    }
+
+    Entry successor(Entry entry, int maxSteps) {
+        SimpleEntry curEntry = (SimpleEntry) entry;
+        if (curEntry.right != null) {
+            curEntry = curEntry.right;
+            while (curEntry.left != null) {
+                checkSteps(maxSteps--);
+                curEntry = curEntry.left;
+            }
+            return curEntry;
+        }
+        SimpleEntry parent = curEntry.parent;
+        while (parent != null && parent.right == curEntry) {
+            checkSteps(maxSteps--);
+            curEntry = parent;
+            parent = parent.parent;
+        }
+        return parent;
+    }
+
+    private static void checkSteps(int stepsLeft) {
+        if (stepsLeft <= 0) {
+            throw new IllegalStateException("Tree walk exceeded its step limit");
+        }
+    }
+
+    // Node a new key hangs from, null for an empty tree; the key is known to be absent
+    private SimpleEntry findParent(Object key) {
+        SimpleEntry parent = null;
+        for (SimpleEntry curEntry = root; curEntry != null; ) {
+            parent = curEntry;
+            curEntry = compare(curEntry.key, key) > 0 ? curEntry.left : curEntry.right;
+        }
+        return parent;
+    }
+
+    // Looks up the sorted batch positions from..to below node, the entry for order[i] goes to found[i]
+    private void findAll(SimpleEntry node, Object[] keys, int[] order, int from, int to, SimpleEntry[] found) {
+        while (from < to && node != null) {
+            int lo = from;
+            int hi = to;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(keys[order[mid]], node.key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int end = lo;
+            while (end < to && compare(keys[order[end]], node.key) == 0) {
+                found[end++] = node;
+            }
+            findAll(node.left, keys, order, from, lo, found);
+            from = end;
+            node = node.right;
+        }
+    }
+
+    // Positions of the non-null keys, stably sorted by key
+    private int[] sortedOrder(Object[] keys) {
+        int count = 0;
+        Integer[] positions = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                positions[count++] = i;
+            }
+        }
+        Arrays.sort(positions, 0, count, (a, b) -> compare(keys[a], keys[b]));
+        int[] toReturn = new int[count];
+        for (int i = 0; i < count; i++) {
+            toReturn[i] = positions[i];
+        }
+        return toReturn;
+    }
+
     private SimpleEntry findInsertPoint(Object key) {
         SimpleEntry curEntry = root;
         while (curEntry != null) {
@@ -294,6 +1841,25 @@ public class MyTreeMap implements MyMap {
         }
     }
 
+    // Bottom-up repair of a red leaf: a red uncle moves the conflict two levels up, a black one
+    // ends it with the rotations of pullUp
+    private void fixAfterLeafInsert(SimpleEntry toCheck) {
+        while (toCheck != root && toCheck.parent.color == RED) {
+            SimpleEntry parent = toCheck.parent;
+            SimpleEntry grandParent = parent.parent;
+            SimpleEntry uncle = grandParent.left == parent ? grandParent.right : grandParent.left;
+            if (uncle == null || uncle.color == BLACK) {
+                pullUp(toCheck);
+                break;
+            }
+            changeColor(parent);
+            changeColor(uncle);
+            changeColor(grandParent);
+            toCheck = grandParent;
+        }
+        root.color = BLACK;
+    }
+
     private void fixDuringInsert(SimpleEntry toCheck) {
         if (hasRedChildren(toCheck)) {
             flipColor(toCheck);
@@ -311,6 +1877,70 @@ public class MyTreeMap implements MyMap {
         changeColor(top.right);
     }
 
+    private SimpleEntry getCeilingEntry(Object key) {
+        SimpleEntry curEntry = root;
+        SimpleEntry toReturn = null;
+        while (curEntry != null) {
+            int cmp = compare(key, curEntry.key);
+            if (cmp == 0) {
+                return curEntry;
+            }
+            if (cmp < 0) {
+                toReturn = curEntry;
+                curEntry = curEntry.left;
+            } else {
+                curEntry = curEntry.right;
+            }
+        }
+        return toReturn;
+    }
+
+    private SimpleEntry getFloorEntry(Object key) {
+        SimpleEntry curEntry = root;
+        SimpleEntry toReturn = null;
+        while (curEntry != null) {
+            int cmp = compare(key, curEntry.key);
+            if (cmp == 0) {
+                return curEntry;
+            }
+            if (cmp > 0) {
+                toReturn = curEntry;
+                curEntry = curEntry.right;
+            } else {
+                curEntry = curEntry.left;
+            }
+        }
+        return toReturn;
+    }
+
+    private SimpleEntry getHigherEntry(Object key) {
+        SimpleEntry curEntry = root;
+        SimpleEntry toReturn = null;
+        while (curEntry != null) {
+            if (compare(key, curEntry.key) < 0) {
+                toReturn = curEntry;
+                curEntry = curEntry.left;
+            } else {
+                curEntry = curEntry.right;
+            }
+        }
+        return toReturn;
+    }
+
+    private SimpleEntry getLowerEntry(Object key) {
+        SimpleEntry curEntry = root;
+        SimpleEntry toReturn = null;
+        while (curEntry != null) {
+            if (compare(key, curEntry.key) > 0) {
+                toReturn = curEntry;
+                curEntry = curEntry.right;
+            } else {
+                curEntry = curEntry.left;
+            }
+        }
+        return toReturn;
+    }
+
     private boolean hasBlackChildren(SimpleEntry toCheck) {
         if (toCheck.left == null && toCheck.right == null) {
             return true;
@@ -336,6 +1966,45 @@ public class MyTreeMap implements MyMap {
         return toCheck.parent.right == toCheck;
     }
 
+    private void loadSorted(SortedLoader loader, int count) {
+        int redLevel = 0;
+        for (int m = count - 1; m >= 0; m = m / 2 - 1) {
+            redLevel++;
+        }
+        root = loader.build(0, 0, count - 1, redLevel);
+        if (root != null) {
+            root.color = BLACK;
+        }
+        size = count;
+        modCount++;
+    }
+
+    private static Object key(SimpleEntry entry) {
+        if (entry == null) {
+            throw new NoSuchElementException();
+        }
+        return entry.key;
+    }
+
+    private static Object keyOrNull(Entry entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    private static SimpleEntry maximal(SimpleEntry root) {
+        SimpleEntry curEntry = root;
+        if (curEntry == null) {
+            return null;
+        }
+        while (curEntry.right != null) {
+            curEntry = curEntry.right;
+        }
+        return curEntry;
+    }
+
+    private static int height(SimpleEntry entry) {
+        return entry == null ? 0 : 1 + Math.max(height(entry.left), height(entry.right));
+    }
+
     private static SimpleEntry minimal(SimpleEntry root) {
         SimpleEntry curEntry = root;
         if (curEntry == null) {
@@ -347,6 +2016,25 @@ public class MyTreeMap implements MyMap {
         return curEntry;
     }
 
+    private static SimpleEntry predecessor(SimpleEntry entry) {
+        if (entry == null) {
+            return null;
+        }
+        SimpleEntry curEntry = entry.left;
+        if (curEntry == null) {
+            curEntry = entry.parent;
+            while (curEntry != null && curEntry.left == entry) {
+                entry = curEntry;
+                curEntry = curEntry.parent;
+            }
+            return curEntry;
+        }
+        while (curEntry.right != null) {
+            curEntry = curEntry.right;
+        }
+        return curEntry;
+    }
+
     private void pullUp(SimpleEntry toPull) {
         if (isRightChild(toPull) ^ isRightChild(toPull.parent)) {
             // Inner grandson
@@ -449,6 +2137,9 @@ public class MyTreeMap implements MyMap {
         if (top == null) {
             return;
         }
+        if (stats != null) {
+            stats.rotations++;
+        }
         if (top.right == null) {
             throw new IllegalArgumentException("Unable to perform rotation left");
         }
@@ -475,6 +2166,9 @@ public class MyTreeMap implements MyMap {
         if (top == null) {
             return;
         }
+        if (stats != null) {
+            stats.rotations++;
+        }
         if (top.left == null) {
             throw new IllegalArgumentException("Unable to perform rotation right");
         }
@@ -526,7 +2220,20 @@ public class MyTreeMap implements MyMap {
         return curEntry;
     }
 
+    @Override
     public String toString() {
+        StringBuilder toReturn = new StringBuilder();
+        try {
+            appendTo(toReturn);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+        return toReturn.toString();
+    }
+
+    // Level by level drawing with colors; the width doubles with every level, so keep it to small trees
+    public String toTreeString() {
         if (this.root == null) return "";
         StringBuilder toReturn = new StringBuilder();
         Queue<SimpleEntry> q = new LinkedList<>();
@@ -615,7 +2322,7 @@ public class MyTreeMap implements MyMap {
             treeMap.put(toAdd, toAdd);
         }
         System.out.println("size = " + treeMap.size());
-        System.out.println(treeMap);
+        System.out.println(treeMap.toTreeString());
         System.out.println("\nBlack heights:");
         treeMap.showBlackHeights(treeMap.root, 0);
     }
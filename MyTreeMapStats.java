@@ -0,0 +1,116 @@
+package EPAM2015_lab9;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters of a MyTreeMap created by enableStats(). The map bumps them without synchronization
+// like the rest of its state, so readers on other threads may see slightly stale values; heights
+// are measured when read
+public class MyTreeMapStats implements MyTreeMapStatsMBean {
+
+    private final MyTreeMap map;
+    // Null when the flight recorder events are not available
+    private final Object periodicHook;
+    // Written by the map's own thread
+    long operations;
+    long rotations;
+    long colorFlips;
+    long comparisons;
+    private ObjectName objectName;
+
+    MyTreeMapStats(MyTreeMap map) {
+        this.map = map;
+        MapFlightRecorder recorder = MapFlightRecorder.INSTANCE;
+        periodicHook = recorder == null ? null : recorder.addTreeMapStatistics(map);
+    }
+
+    @Override
+    public int getBlackHeight() {
+        return map.blackHeight();
+    }
+
+    @Override
+    public long getColorFlips() {
+        return colorFlips;
+    }
+
+    @Override
+    public double getColorFlipsPerOperation() {
+        return perOperation(colorFlips);
+    }
+
+    @Override
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    @Override
+    public double getComparisonsPerOperation() {
+        return perOperation(comparisons);
+    }
+
+    @Override
+    public int getHeight() {
+        return map.height();
+    }
+
+    @Override
+    public long getOperations() {
+        return operations;
+    }
+
+    @Override
+    public long getRotations() {
+        return rotations;
+    }
+
+    @Override
+    public double getRotationsPerOperation() {
+        return perOperation(rotations);
+    }
+
+    @Override
+    public int getSize() {
+        return map.size();
+    }
+
+    @Override
+    public void reset() {
+        operations = 0;
+        rotations = 0;
+        colorFlips = 0;
+        comparisons = 0;
+    }
+
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        unregisterMBean();
+        ObjectName toRegister = new ObjectName("EPAM2015_lab9:type=MyTreeMap,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, toRegister);
+        objectName = toRegister;
+        return toRegister;
+    }
+
+    public synchronized void unregisterMBean() throws JMException {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    void close() {
+        if (periodicHook != null) {
+            MapFlightRecorder.INSTANCE.removePeriodic(periodicHook);
+        }
+        try {
+            unregisterMBean();
+        } catch (JMException ignored) {
+            // Already unregistered by a management client
+        }
+    }
+
+    private double perOperation(long count) {
+        long curOperations = operations;
+        return curOperations == 0 ? 0 : (double) count / curOperations;
+    }
+}
@@ -0,0 +1,26 @@
+package EPAM2015_lab9;
+
+public interface MyTreeMapStatsMBean {
+
+    int getBlackHeight();
+
+    long getColorFlips();
+
+    double getColorFlipsPerOperation();
+
+    long getComparisons();
+
+    double getComparisonsPerOperation();
+
+    int getHeight();
+
+    long getOperations();
+
+    long getRotations();
+
+    double getRotationsPerOperation();
+
+    int getSize();
+
+    void reset();
+}
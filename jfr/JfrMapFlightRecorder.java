@@ -0,0 +1,176 @@
+package EPAM2015_lab9;
+
+import java.lang.ref.WeakReference;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+
+// Flight recorder side of MapFlightRecorder, needs Java 11 and is compiled apart from the maps
+class JfrMapFlightRecorder implements MapFlightRecorder {
+
+    @Name("EPAM2015_lab9.MyHashMapResize")
+    @Label("MyHashMap Resize")
+    @Category("Collections")
+    static class HashMapResizeEvent extends Event {
+
+        @Label("Old Capacity")
+        int oldCapacity;
+
+        @Label("New Capacity")
+        int newCapacity;
+
+        @Label("Size")
+        int size;
+
+        @Label("Incremental")
+        boolean incremental;
+    }
+
+    @Name("EPAM2015_lab9.MyHashMapStatistics")
+    @Label("MyHashMap Statistics")
+    @Category("Collections")
+    @Period("10 s")
+    static class HashMapStatisticsEvent extends Event {
+
+        @Label("Size")
+        int size;
+
+        @Label("Capacity")
+        int capacity;
+
+        @Label("Max Chain Length")
+        int maxChainLength;
+
+        @Label("Resize Count")
+        long resizeCount;
+    }
+
+    @Name("EPAM2015_lab9.MyTreeMapStatistics")
+    @Label("MyTreeMap Statistics")
+    @Category("Collections")
+    @Period("10 s")
+    static class TreeMapStatisticsEvent extends Event {
+
+        @Label("Size")
+        int size;
+
+        @Label("Height")
+        int height;
+
+        @Label("Black Height")
+        int blackHeight;
+
+        @Label("Operations")
+        long operations;
+
+        @Label("Rotations")
+        long rotations;
+
+        @Label("Color Flips")
+        long colorFlips;
+
+        @Label("Comparisons")
+        long comparisons;
+    }
+
+    // FlightRecorder keeps the hook until it is removed, so a strong reference would keep a map
+    // that enabled stats alive after its last user let go
+    private static class HashMapHook implements Runnable {
+
+        private final WeakReference<MyHashMap> map;
+
+        private HashMapHook(MyHashMap map) {
+            this.map = new WeakReference<>(map);
+        }
+
+        @Override
+        public void run() {
+            MyHashMap curMap = map.get();
+            if (curMap == null) {
+                FlightRecorder.removePeriodicEvent(this);
+                return;
+            }
+            MyHashMapStats stats = curMap.stats();
+            if (stats == null) {
+                return;
+            }
+            HashMapStatisticsEvent event = new HashMapStatisticsEvent();
+            event.size = stats.getSize();
+            event.capacity = stats.getCapacity();
+            event.maxChainLength = stats.getMaxChainLength();
+            event.resizeCount = stats.getResizeCount();
+            event.commit();
+        }
+    }
+
+    private static class TreeMapHook implements Runnable {
+
+        private final WeakReference<MyTreeMap> map;
+
+        private TreeMapHook(MyTreeMap map) {
+            this.map = new WeakReference<>(map);
+        }
+
+        @Override
+        public void run() {
+            MyTreeMap curMap = map.get();
+            if (curMap == null) {
+                FlightRecorder.removePeriodicEvent(this);
+                return;
+            }
+            MyTreeMapStats stats = curMap.stats();
+            if (stats == null) {
+                return;
+            }
+            TreeMapStatisticsEvent event = new TreeMapStatisticsEvent();
+            event.size = stats.getSize();
+            event.height = stats.getHeight();
+            event.blackHeight = stats.getBlackHeight();
+            event.operations = stats.getOperations();
+            event.rotations = stats.getRotations();
+            event.colorFlips = stats.getColorFlips();
+            event.comparisons = stats.getComparisons();
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object addHashMapStatistics(MyHashMap map) {
+        Runnable toReturn = new HashMapHook(map);
+        FlightRecorder.addPeriodicEvent(HashMapStatisticsEvent.class, toReturn);
+        return toReturn;
+    }
+
+    @Override
+    public Object addTreeMapStatistics(MyTreeMap map) {
+        Runnable toReturn = new TreeMapHook(map);
+        FlightRecorder.addPeriodicEvent(TreeMapStatisticsEvent.class, toReturn);
+        return toReturn;
+    }
+
+    @Override
+    public void removePeriodic(Object hook) {
+        FlightRecorder.removePeriodicEvent((Runnable) hook);
+    }
+
+    @Override
+    public Object beginHashMapResize() {
+        HashMapResizeEvent toReturn = new HashMapResizeEvent();
+        toReturn.begin();
+        return toReturn;
+    }
+
+    @Override
+    public void endHashMapResize(Object event, int oldCapacity, int newCapacity, int size, boolean incremental) {
+        HashMapResizeEvent curEvent = (HashMapResizeEvent) event;
+        curEvent.end();
+        curEvent.oldCapacity = oldCapacity;
+        curEvent.newCapacity = newCapacity;
+        curEvent.size = size;
+        curEvent.incremental = incremental;
+        curEvent.commit();
+    }
+}
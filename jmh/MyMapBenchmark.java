@@ -0,0 +1,292 @@
+package EPAM2015_lab9;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Every combination of the parameters runs in a JVM of its own, so only one map class ever reaches
+// the Target call sites and the results do not depend on the order the maps are measured in.
+// get times one lookup; put and remove time a whole pass over the keys, since the map has to be
+// emptied or refilled between passes outside the measurement, so divide them by size for ns/op.
+// Narrow the run with JMH options, e.g. -p implementation=MY_HASH_MAP,HASH_MAP -p size=1000
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MyMapBenchmark {
+
+    public enum Implementation {
+        MY_HASH_MAP, MY_SWISS_HASH_MAP, MY_TREE_MAP, MY_ARRAY_TREE_MAP, HASH_MAP, TREE_MAP
+    }
+
+    public enum Distribution {
+        SEQUENTIAL, RANDOM, COLLISION
+    }
+
+    public enum KeyType {
+        INTEGER, STRING
+    }
+
+    private interface Target {
+
+        Object get(Object key);
+
+        Object put(Object key, Object value);
+
+        Object remove(Object key);
+
+        boolean containsValue(Object value);
+
+        void iterate(Blackhole blackhole);
+    }
+
+    private static class MyMapTarget implements Target {
+
+        private final MyMap map;
+
+        private MyMapTarget(MyMap map) {
+            this.map = map;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return map.get(key);
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            return map.put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return map.remove(key);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return map.containsValue(value);
+        }
+
+        @Override
+        public void iterate(Blackhole blackhole) {
+            Iterator iter = map.entryIterator();
+            while (iter.hasNext()) {
+                blackhole.consume(((MyMap.Entry) iter.next()).getValue());
+            }
+        }
+    }
+
+    private static class JdkTarget implements Target {
+
+        private final Map<Object, Object> map;
+
+        private JdkTarget(Map<Object, Object> map) {
+            this.map = map;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return map.get(key);
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            return map.put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return map.remove(key);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return map.containsValue(value);
+        }
+
+        @Override
+        public void iterate(Blackhole blackhole) {
+            for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                blackhole.consume(entry.getValue());
+            }
+        }
+    }
+
+    // A fresh empty map before each put pass
+    @State(Scope.Thread)
+    public static class EmptyTarget {
+
+        private Target target;
+
+        @Setup(Level.Invocation)
+        public void setUp(MyMapBenchmark benchmark) {
+            target = createTarget(benchmark.implementation);
+        }
+    }
+
+    // A full map before each remove pass
+    @State(Scope.Thread)
+    public static class FilledTarget {
+
+        private Target target;
+
+        @Setup(Level.Invocation)
+        public void setUp(MyMapBenchmark benchmark) {
+            target = createTarget(benchmark.implementation);
+            fill(target, benchmark.keys);
+        }
+    }
+
+    private static final Object ABSENT_VALUE = new Object();
+
+    @Param({"MY_HASH_MAP", "MY_SWISS_HASH_MAP", "MY_TREE_MAP", "MY_ARRAY_TREE_MAP", "HASH_MAP", "TREE_MAP"})
+    public Implementation implementation;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"SEQUENTIAL", "RANDOM", "COLLISION"})
+    public Distribution distribution;
+
+    @Param({"INTEGER", "STRING"})
+    public KeyType keyType;
+
+    private Object[] keys;
+    // The keys in shuffled order, so lookups do not follow insertion order
+    private Object[] queries;
+    private Target filled;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = generateKeys(keyType, distribution, size);
+        queries = keys.clone();
+        shuffle(queries, new Random(size));
+        filled = createTarget(implementation);
+        fill(filled, keys);
+    }
+
+    @Benchmark
+    public Object get() {
+        Object key = queries[next];
+        next = next + 1 == queries.length ? 0 : next + 1;
+        return filled.get(key);
+    }
+
+    @Benchmark
+    public void put(EmptyTarget empty, Blackhole blackhole) {
+        Target target = empty.target;
+        for (Object key : keys) {
+            blackhole.consume(target.put(key, key));
+        }
+    }
+
+    @Benchmark
+    public void remove(FilledTarget full, Blackhole blackhole) {
+        Target target = full.target;
+        for (Object key : queries) {
+            blackhole.consume(target.remove(key));
+        }
+    }
+
+    @Benchmark
+    public boolean containsValue() {
+        return filled.containsValue(ABSENT_VALUE);
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        filled.iterate(blackhole);
+    }
+
+    private static Target createTarget(Implementation implementation) {
+        switch (implementation) {
+            case MY_HASH_MAP:
+                return new MyMapTarget(new MyHashMap());
+            case MY_SWISS_HASH_MAP:
+                return new MyMapTarget(new MySwissHashMap());
+            case MY_TREE_MAP:
+                return new MyMapTarget(new MyTreeMap());
+            case MY_ARRAY_TREE_MAP:
+                return new MyMapTarget(new MyArrayTreeMap());
+            case HASH_MAP:
+                return new JdkTarget(new HashMap<>());
+            case TREE_MAP:
+                return new JdkTarget(new TreeMap<>());
+            default:
+                throw new IllegalArgumentException("Unknown implementation: " + implementation);
+        }
+    }
+
+    private static void fill(Target target, Object[] keys) {
+        for (Object key : keys) {
+            target.put(key, key);
+        }
+    }
+
+    private static Object[] generateKeys(KeyType keyType, Distribution distribution, int size) {
+        Object[] toReturn = new Object[size];
+        for (int i = 0; i < size; i++) {
+            int key;
+            switch (distribution) {
+                case SEQUENTIAL:
+                    key = i;
+                    break;
+                case RANDOM:
+                    // Odd multiplier is a bijection on int, so keys stay distinct
+                    key = i * 0x9E3779B9;
+                    break;
+                case COLLISION:
+                    // HashMap and MyHashMap index by the spread hash h ^ h >>> 16, which is its own
+                    // inverse, so the key is chosen to make the spread hash of each group of 256 keys
+                    // agree in the low 24 bits. Like the strings, every group shares one bucket in
+                    // tables of up to 2^24, enough for 1e7 keys
+                    int hash = (i & 0xFF) << 24 | i >>> 8;
+                    key = hash ^ hash >>> 16;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown distribution: " + distribution);
+            }
+            toReturn[i] = keyType == KeyType.INTEGER ? (Object) key
+                    : distribution == Distribution.COLLISION ? collidingString(i) : "key" + key;
+        }
+        return toReturn;
+    }
+
+    private static String collidingString(int i) {
+        // "Aa" and "BB" share a hash code, so each group of 256 strings has equal hashes
+        StringBuilder toReturn = new StringBuilder();
+        for (int bit = 0; bit < 8; bit++) {
+            toReturn.append((i & 1 << bit) == 0 ? "Aa" : "BB");
+        }
+        return toReturn.append(i >>> 8).toString();
+    }
+
+    private static void shuffle(Object[] array, Random random) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Object temp = array[i];
+            array[i] = array[j];
+            array[j] = temp;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package EPAM2015_lab9;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MyConcurrentHashMapTest {
+
+    private static final int THREADS = 8;
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void concurrentMergeCountsEveryIncrement() throws Exception {
+        int keys = 1000;
+        int increments = 20000;
+        // Starts small so the counters are merged while the table grows
+        MyConcurrentHashMap map = new MyConcurrentHashMap(2);
+        runAll(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < increments; i++) {
+                map.merge(random.nextInt(keys), 1, (a, b) -> (Integer) a + (Integer) b);
+            }
+        });
+        long total = 0;
+        Iterator iter = map.entryIterator();
+        while (iter.hasNext()) {
+            total += (Integer) ((MyMap.Entry) iter.next()).getValue();
+        }
+        assertEquals((long) THREADS * increments, total);
+        assertTrue(map.size() <= keys);
+    }
+
+    @Test
+    void concurrentMergeOnOneKey() throws Exception {
+        int increments = 50000;
+        MyConcurrentHashMap map = new MyConcurrentHashMap();
+        runAll(() -> {
+            for (int i = 0; i < increments; i++) {
+                map.merge("counter", 1L, (a, b) -> (Long) a + (Long) b);
+            }
+        });
+        assertEquals((long) THREADS * increments, map.get("counter"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void disjointPutAndRemoveMatchConcurrentHashMap() throws Exception {
+        int keysPerThread = 20000;
+        MyConcurrentHashMap map = new MyConcurrentHashMap(2);
+        Map<Object, Object> expected = new ConcurrentHashMap<>();
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        Future<?>[] futures = new Future<?>[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures[t] = executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                // Each thread owns the keys equal to its index modulo THREADS, so the result of
+                // every operation is known from this thread's own history
+                for (int i = 0; i < 4 * keysPerThread; i++) {
+                    int key = random.nextInt(keysPerThread) * THREADS + thread;
+                    if (random.nextInt(3) == 0) {
+                        assertEquals(expected.remove(key), map.remove(key));
+                    } else {
+                        assertEquals(expected.put(key, i), map.put(key, i));
+                    }
+                }
+                return null;
+            });
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Object, Object> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Set<Object> seen = new HashSet<>();
+        Iterator iter = map.entryIterator();
+        while (iter.hasNext()) {
+            MyMap.Entry entry = (MyMap.Entry) iter.next();
+            assertTrue(seen.add(entry.getKey()));
+            assertEquals(expected.get(entry.getKey()), entry.getValue());
+        }
+        assertEquals(expected.keySet(), seen);
+        for (int key = 0; key < keysPerThread * THREADS; key++) {
+            if (!expected.containsKey(key)) {
+                assertNull(map.get(key));
+            }
+        }
+    }
+
+    @Test
+    void iteratorReturnsEachKeyOnceDuringResize() throws Exception {
+        int stable = 2000;
+        for (int round = 0; round < 50; round++) {
+            MyConcurrentHashMap map = new MyConcurrentHashMap(2);
+            for (int i = 0; i < stable; i++) {
+                map.put(i, i);
+            }
+            AtomicBoolean done = new AtomicBoolean();
+            Future<?>[] writers = new Future<?>[THREADS - 1];
+            for (int t = 0; t < writers.length; t++) {
+                int thread = t;
+                // Grow the table several times over while the iterator walks it
+                writers[t] = executor.submit(() -> {
+                    for (int i = 0; i < 50000 && !done.get(); i++) {
+                        map.put(stable + i * writers.length + thread, i);
+                    }
+                });
+            }
+            Set<Object> seen = new HashSet<>();
+            int stableSeen = 0;
+            Iterator iter = map.entryIterator();
+            while (iter.hasNext()) {
+                Object key = ((MyMap.Entry) iter.next()).getKey();
+                assertTrue(seen.add(key), "Key returned twice: " + key);
+                if ((Integer) key < stable) {
+                    stableSeen++;
+                }
+            }
+            done.set(true);
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            // Keys present for the whole traversal are returned
+            assertEquals(stable, stableSeen);
+        }
+    }
+
+    private void runAll(Runnable task) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        Future<?>[] futures = new Future<?>[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            futures[t] = executor.submit(() -> {
+                start.await();
+                task.run();
+                return null;
+            });
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+}
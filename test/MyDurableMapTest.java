@@ -0,0 +1,253 @@
+package EPAM2015_lab9;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MyDurableMapTest {
+
+    private static final String LOG_FILE = "map.log";
+    private static final String SNAPSHOT_FILE = "map.snapshot";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reopenAfterClose() throws IOException {
+        Map<Object, Object> expected = new HashMap<>();
+        try (MyDurableMap map = open(directory)) {
+            write(map, expected, 1000);
+            map.put("bytes", new byte[]{1, 2, 3});
+            map.put("null", null);
+        }
+        try (MyDurableMap map = open(directory)) {
+            assertContents(expected, map, 2);
+            assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) map.get("bytes"));
+            assertTrue(map.containsKey("null"));
+            assertNull(map.get("null"));
+        }
+    }
+
+    @Test
+    void reopenWithoutClose(@TempDir Path crashed) throws IOException {
+        Map<Object, Object> expected = new HashMap<>();
+        try (MyDurableMap map = open(directory)) {
+            write(map, expected, 1000);
+            map.clear();
+            expected.clear();
+            write(map, expected, 500);
+            // A put is in the log once it returns, so the files as they are now are what a
+            // crash would leave behind
+            copyFiles(directory, crashed);
+        }
+        try (MyDurableMap map = open(crashed)) {
+            assertContents(expected, map, 0);
+        }
+    }
+
+    @Test
+    void replayStopsAtTornRecord() throws IOException {
+        try (MyDurableMap map = open(directory)) {
+            for (int i = 0; i < 100; i++) {
+                map.put(i, "value" + i);
+            }
+        }
+        long complete = Files.size(directory.resolve(LOG_FILE));
+        try (MyDurableMap map = open(directory)) {
+            map.put(100, "value100");
+        }
+        long torn = Files.size(directory.resolve(LOG_FILE)) - 3;
+        try (FileChannel log = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.WRITE)) {
+            log.truncate(torn);
+        }
+        try (MyDurableMap map = open(directory)) {
+            assertEquals(100, map.size());
+            assertEquals("value99", map.get(99));
+            assertFalse(map.containsKey(100));
+            // The torn tail is cut off so new records follow the last complete one
+            assertEquals(complete, Files.size(directory.resolve(LOG_FILE)));
+            map.put(101, "value101");
+        }
+        try (MyDurableMap map = open(directory)) {
+            assertEquals(101, map.size());
+            assertEquals("value101", map.get(101));
+        }
+    }
+
+    @Test
+    void replayStopsAtCorruptedRecord() throws IOException {
+        try (MyDurableMap map = open(directory)) {
+            for (int i = 0; i < 100; i++) {
+                map.put(i, "value" + i);
+            }
+        }
+        long complete = Files.size(directory.resolve(LOG_FILE));
+        try (MyDurableMap map = open(directory)) {
+            map.put(100, "value100");
+            map.put(101, "value101");
+        }
+        // Flip the last byte of the first new record's value, its CRC no longer matches
+        try (FileChannel log = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = log.size();
+            long position = complete + (size - complete) / 2 - 1;
+            ByteBuffer buf = ByteBuffer.allocate(1);
+            log.read(buf, position);
+            buf.put(0, (byte) ~buf.get(0));
+            buf.rewind();
+            log.write(buf, position);
+        }
+        try (MyDurableMap map = open(directory)) {
+            assertEquals(100, map.size());
+            assertFalse(map.containsKey(100));
+            assertFalse(map.containsKey(101));
+            assertEquals(complete, Files.size(directory.resolve(LOG_FILE)));
+        }
+    }
+
+    @Test
+    void compactionKeepsContents() throws IOException {
+        long threshold = 512;
+        Map<Object, Object> expected = new HashMap<>();
+        try (MyDurableMap map = open(directory, threshold)) {
+            write(map, expected, 2000);
+            assertTrue(Files.exists(directory.resolve(SNAPSHOT_FILE)));
+            assertTrue(Files.size(directory.resolve(LOG_FILE)) < threshold);
+            map.compact();
+            assertEquals(0, Files.size(directory.resolve(LOG_FILE)));
+            write(map, expected, 100);
+        }
+        try (MyDurableMap map = open(directory, threshold)) {
+            assertContents(expected, map, 0);
+            write(map, expected, 1000);
+        }
+        // Reopened with the default threshold so the records written since the last snapshot are
+        // replayed over it
+        try (MyDurableMap map = open(directory)) {
+            assertContents(expected, map, 0);
+        }
+    }
+
+    @Test
+    void concurrentAcknowledgedWritesSurvive(@TempDir Path crashed) throws Exception {
+        int threads = 8;
+        int writesPerThread = 2000;
+        Map<Object, Object> acknowledged = new ConcurrentHashMap<>();
+        Map<Object, Object> beforeCrash;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (MyDurableMap map = open(directory)) {
+            CyclicBarrier start = new CyclicBarrier(threads + 1);
+            Future<?>[] futures = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures[t] = executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < writesPerThread; i++) {
+                        // Every key is written once, so an acknowledged key has exactly this value
+                        String key = thread + ":" + i;
+                        map.put(key, (long) i);
+                        acknowledged.put(key, (long) i);
+                    }
+                    return null;
+                });
+            }
+            start.await();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (acknowledged.size() < threads * writesPerThread / 4) {
+                assertTrue(System.nanoTime() < deadline, "Writers stalled");
+                Thread.yield();
+            }
+            // Crash mid-run: writes acknowledged before the copy must be in it, later ones may be
+            beforeCrash = new HashMap<>(acknowledged);
+            copyFiles(directory, crashed);
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        try (MyDurableMap map = open(crashed)) {
+            assertTrue(map.size() >= beforeCrash.size());
+            for (Map.Entry<Object, Object> entry : beforeCrash.entrySet()) {
+                assertEquals(entry.getValue(), map.get(entry.getKey()), "key " + entry.getKey());
+            }
+        }
+        try (MyDurableMap map = open(directory)) {
+            assertContents(acknowledged, map, 0);
+        }
+    }
+
+    private static MyDurableMap open(Path directory) throws IOException {
+        return new MyDurableMap(new MyHashMap(), directory);
+    }
+
+    private static MyDurableMap open(Path directory, long compactionThreshold) throws IOException {
+        return new MyDurableMap(new MyHashMap(), directory, compactionThreshold);
+    }
+
+    // Random puts, removes and merges on a small key range so keys are overwritten and removed
+    private static void write(MyDurableMap map, Map<Object, Object> expected, int operations) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < operations; i++) {
+            Object key = random.nextBoolean() ? (Object) random.nextInt(200) : "key" + random.nextInt(200);
+            switch (random.nextInt(4)) {
+                case 0:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                case 1:
+                    assertEquals(expected.merge(key, 1L, (a, b) -> (Long) a + (Long) b),
+                            map.merge(key, 1L, (a, b) -> (Long) a + (Long) b));
+                    break;
+                default:
+                    long value = random.nextLong();
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                    break;
+            }
+        }
+    }
+
+    private static void assertContents(Map<Object, Object> expected, MyDurableMap map, int extra) {
+        assertEquals(expected.size() + extra, map.size());
+        for (Map.Entry<Object, Object> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()), "key " + entry.getKey());
+        }
+        int matched = 0;
+        Iterator iter = map.entryIterator();
+        while (iter.hasNext()) {
+            if (expected.containsKey(((MyMap.Entry) iter.next()).getKey())) {
+                matched++;
+            }
+        }
+        assertEquals(expected.size(), matched);
+    }
+
+    private static void copyFiles(Path from, Path to) throws IOException {
+        for (String name : new String[]{SNAPSHOT_FILE, LOG_FILE}) {
+            if (Files.exists(from.resolve(name))) {
+                Files.copy(from.resolve(name), to.resolve(name));
+            }
+        }
+    }
+}